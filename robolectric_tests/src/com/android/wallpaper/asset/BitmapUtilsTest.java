@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BitmapUtilsTest {
+    private static final int STRIP_ROWS = 256;
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void testGetStrip_exactMultipleOfStrips_noPartialStrip() {
+        Rect region = new Rect(0, 0, 100, 2 * STRIP_ROWS * 2);
+
+        List<Rect> strips = getStrips(region, /* sampleSize= */ 2);
+
+        assertEquals(2, strips.size());
+        assertEquals(new Rect(0, 0, 100, STRIP_ROWS * 2), strips.get(0));
+        assertEquals(new Rect(0, STRIP_ROWS * 2, 100, STRIP_ROWS * 4), strips.get(1));
+    }
+
+    @Test
+    public void testGetStrip_onePastStripBoundary_lastStripIsOneRow() {
+        Rect region = new Rect(0, 0, 100, STRIP_ROWS + 1);
+
+        List<Rect> strips = getStrips(region, /* sampleSize= */ 1);
+
+        assertEquals(2, strips.size());
+        assertEquals(new Rect(0, STRIP_ROWS, 100, STRIP_ROWS + 1), strips.get(1));
+    }
+
+    @Test
+    public void testGetStripDestination_noSeamsAtStripBoundaries() {
+        Rect region = new Rect(7, 13, 1007, 13 + 5 * STRIP_ROWS + 97);
+
+        for (int sampleSize : new int[] {1, 2, 3, 4, 5}) {
+            List<Rect> strips = getStrips(region, sampleSize);
+            Point sampledSize = BitmapUtils.getSampledSize(region, sampleSize);
+
+            RectF previous = null;
+            for (Rect strip : strips) {
+                RectF destination = new RectF();
+                BitmapUtils.getStripDestination(region, strip, sampleSize, destination);
+
+                assertEquals(0, destination.left, DELTA);
+                assertEquals(sampledSize.x, destination.right, DELTA);
+                assertEquals(previous == null ? 0 : previous.bottom, destination.top, 0);
+                previous = destination;
+            }
+            assertEquals(sampledSize.y, previous.bottom, 0.5f);
+        }
+    }
+
+    @Test
+    public void testGetSampledSize_oddSampleSize_roundsToNearest() {
+        Rect region = new Rect(0, 0, 1001, 998);
+
+        assertEquals(new Point(334, 333), BitmapUtils.getSampledSize(region, 3));
+        assertEquals(new Point(200, 200), BitmapUtils.getSampledSize(region, 5));
+    }
+
+    @Test
+    public void testGetRotationMatrix_90_topLeftMovesToTopRight() {
+        Matrix matrix = BitmapUtils.getRotationMatrix(300, 200, 90);
+
+        assertMapsTo(matrix, 0, 0, 200, 0);
+        assertMapsTo(matrix, 300, 200, 0, 300);
+        assertRotatedBounds(matrix, 300, 200, 200, 300);
+    }
+
+    @Test
+    public void testGetRotationMatrix_180_topLeftMovesToBottomRight() {
+        Matrix matrix = BitmapUtils.getRotationMatrix(300, 200, 180);
+
+        assertMapsTo(matrix, 0, 0, 300, 200);
+        assertMapsTo(matrix, 300, 200, 0, 0);
+        assertRotatedBounds(matrix, 300, 200, 300, 200);
+    }
+
+    @Test
+    public void testGetRotationMatrix_270_topLeftMovesToBottomLeft() {
+        Matrix matrix = BitmapUtils.getRotationMatrix(300, 200, 270);
+
+        assertMapsTo(matrix, 0, 0, 0, 300);
+        assertMapsTo(matrix, 300, 200, 200, 0);
+        assertRotatedBounds(matrix, 300, 200, 200, 300);
+    }
+
+    @Test
+    public void testShouldDecodeRotatedRegion_onlyForLargeDecodes() {
+        assertTrue(BitmapUtils.shouldDecodeRotatedRegion(4000, 3000, 1));
+        assertFalse(BitmapUtils.shouldDecodeRotatedRegion(4000, 3000, 2));
+        assertFalse(BitmapUtils.shouldDecodeRotatedRegion(1080, 2400, 1));
+    }
+
+    private static List<Rect> getStrips(Rect region, int sampleSize) {
+        List<Rect> strips = new ArrayList<>();
+        for (int top = region.top; top < region.bottom; ) {
+            Rect strip = new Rect();
+            BitmapUtils.getStrip(region, top, sampleSize, strip);
+            strips.add(strip);
+            top = strip.bottom;
+        }
+        return strips;
+    }
+
+    private static void assertMapsTo(Matrix matrix, float x, float y, float expectedX,
+            float expectedY) {
+        float[] point = {x, y};
+        matrix.mapPoints(point);
+        assertEquals(expectedX, point[0], DELTA);
+        assertEquals(expectedY, point[1], DELTA);
+    }
+
+    private static void assertRotatedBounds(Matrix matrix, int width, int height,
+            float expectedWidth, float expectedHeight) {
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        assertEquals(0, bounds.left, DELTA);
+        assertEquals(0, bounds.top, DELTA);
+        assertEquals(expectedWidth, bounds.right, DELTA);
+        assertEquals(expectedHeight, bounds.bottom, DELTA);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchingSharedPreferencesTest {
+    private static final String KEY = "key";
+    private static final String OTHER_KEY = "other_key";
+
+    private SharedPreferences mPrefs;
+    private BatchingSharedPreferences mBatchingPrefs;
+
+    @Before
+    public void setUp() {
+        mPrefs = RuntimeEnvironment.application.getSharedPreferences(
+                "batching_test", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mBatchingPrefs = new BatchingSharedPreferences(mPrefs);
+    }
+
+    @Test
+    public void testBatch_writesOnlyOnceBatchEnds() {
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 1).apply();
+        mBatchingPrefs.edit().putString(OTHER_KEY, "value").apply();
+
+        assertFalse(mPrefs.contains(KEY));
+        assertFalse(mPrefs.contains(OTHER_KEY));
+
+        mBatchingPrefs.endBatch(true);
+
+        assertEquals(1, mPrefs.getInt(KEY, 0));
+        assertEquals("value", mPrefs.getString(OTHER_KEY, null));
+    }
+
+    @Test
+    public void testNestedBatches_writeOnceOutermostBatchEnds() {
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 1).apply();
+        mBatchingPrefs.endBatch(true);
+
+        assertFalse(mPrefs.contains(KEY));
+
+        mBatchingPrefs.endBatch(true);
+
+        assertEquals(1, mPrefs.getInt(KEY, 0));
+    }
+
+    @Test
+    public void testNestedBatches_innerFailure_discardsWholeBatch() {
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 1).apply();
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(OTHER_KEY, 2).apply();
+        mBatchingPrefs.endBatch(false);
+        mBatchingPrefs.endBatch(true);
+
+        assertFalse(mPrefs.contains(KEY));
+        assertFalse(mPrefs.contains(OTHER_KEY));
+    }
+
+    @Test
+    public void testBatch_throwingWrites_discardsWrites() {
+        mPrefs.edit().putInt(KEY, 1).commit();
+
+        try {
+            runInBatch(() -> {
+                mBatchingPrefs.edit().putInt(KEY, 2).apply();
+                mBatchingPrefs.edit().remove(OTHER_KEY).apply();
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+
+        assertEquals(1, mPrefs.getInt(KEY, 0));
+        assertEquals(1, mBatchingPrefs.getInt(KEY, 0));
+        // The batch of the thread ended, so writes go straight to the preferences again.
+        mBatchingPrefs.edit().putInt(KEY, 3).commit();
+        assertEquals(3, mPrefs.getInt(KEY, 0));
+    }
+
+    @Test
+    public void testClear_appliesBeforePutsOfBatch() {
+        mPrefs.edit().putInt(KEY, 1).putInt(OTHER_KEY, 1).commit();
+
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 2).apply();
+        mBatchingPrefs.edit().clear().apply();
+
+        assertEquals(2, mBatchingPrefs.getInt(KEY, 0));
+        assertFalse(mBatchingPrefs.contains(OTHER_KEY));
+        assertEquals(1, mBatchingPrefs.getAll().size());
+
+        mBatchingPrefs.endBatch(true);
+
+        assertEquals(2, mPrefs.getInt(KEY, 0));
+        assertFalse(mPrefs.contains(OTHER_KEY));
+    }
+
+    @Test
+    public void testReads_batchingThread_seePendingWrites() {
+        mPrefs.edit().putInt(OTHER_KEY, 1).commit();
+
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putLong(KEY, 2L).apply();
+        mBatchingPrefs.edit().remove(OTHER_KEY).apply();
+
+        assertEquals(2L, mBatchingPrefs.getLong(KEY, 0L));
+        assertTrue(mBatchingPrefs.contains(KEY));
+        assertEquals(0, mBatchingPrefs.getInt(OTHER_KEY, 0));
+        assertFalse(mBatchingPrefs.contains(OTHER_KEY));
+        assertEquals(2L, mBatchingPrefs.getAll().get(KEY));
+        assertFalse(mBatchingPrefs.getAll().containsKey(OTHER_KEY));
+
+        mBatchingPrefs.endBatch(true);
+    }
+
+    @Test
+    public void testReads_otherThread_doNotSeePendingWrites() throws InterruptedException {
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 1).apply();
+
+        AtomicReference<Boolean> containsKey = new AtomicReference<>();
+        Thread reader = new Thread(() -> containsKey.set(mBatchingPrefs.contains(KEY)));
+        reader.start();
+        reader.join();
+
+        assertFalse(containsKey.get());
+
+        mBatchingPrefs.endBatch(true);
+    }
+
+    @Test
+    public void testCommit_inBatch_writesSynchronouslyAndReturnsResult() {
+        mBatchingPrefs.beginBatch();
+        mBatchingPrefs.edit().putInt(KEY, 1).apply();
+
+        assertTrue(mBatchingPrefs.edit().putInt(OTHER_KEY, 2).commit());
+        assertEquals(1, mPrefs.getInt(KEY, 0));
+        assertEquals(2, mPrefs.getInt(OTHER_KEY, 0));
+
+        mBatchingPrefs.edit().putInt(KEY, 3).apply();
+        assertEquals(3, mBatchingPrefs.getInt(KEY, 0));
+        assertEquals(1, mPrefs.getInt(KEY, 0));
+
+        mBatchingPrefs.endBatch(true);
+
+        assertEquals(3, mPrefs.getInt(KEY, 0));
+    }
+
+    private void runInBatch(Runnable writes) {
+        mBatchingPrefs.beginBatch();
+        boolean success = false;
+        try {
+            writes.run();
+            success = true;
+        } finally {
+            mBatchingPrefs.endBatch(success);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.app.WallpaperColors;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class WallpaperColorQuantizerTest {
+    private static final int SIZE = 48;
+
+    @Test
+    public void testExtract_solidColor_primaryIsThatColor() {
+        int color = Color.rgb(200, 40, 40);
+
+        WallpaperColors colors = WallpaperColorQuantizer.extract(createBitmap(color, color));
+
+        assertEquals(color, colors.getPrimaryColor().toArgb());
+        assertNull(colors.getSecondaryColor());
+    }
+
+    @Test
+    public void testExtract_twoColors_sameMainColorsAsPlatform() {
+        Bitmap bitmap = createBitmap(Color.rgb(30, 60, 200), Color.rgb(230, 180, 20));
+
+        WallpaperColors colors = WallpaperColorQuantizer.extract(bitmap);
+        WallpaperColors platformColors = WallpaperColors.fromBitmap(bitmap);
+
+        assertEquals(platformColors.getPrimaryColor().toArgb(),
+                colors.getPrimaryColor().toArgb());
+        assertEquals(platformColors.getSecondaryColor().toArgb(),
+                colors.getSecondaryColor().toArgb());
+    }
+
+    @Test
+    public void testExtract_brightBitmap_sameHintsAsPlatform() {
+        Bitmap bitmap = createBitmap(Color.WHITE, Color.rgb(240, 240, 230));
+
+        WallpaperColors colors = WallpaperColorQuantizer.extract(bitmap);
+
+        assertEquals(WallpaperColors.fromBitmap(bitmap).getColorHints(), colors.getColorHints());
+    }
+
+    @Test
+    public void testExtract_darkBitmap_sameHintsAsPlatform() {
+        Bitmap bitmap = createBitmap(Color.BLACK, Color.rgb(20, 20, 40));
+
+        WallpaperColors colors = WallpaperColorQuantizer.extract(bitmap);
+
+        assertEquals(WallpaperColors.fromBitmap(bitmap).getColorHints(), colors.getColorHints());
+    }
+
+    @Test
+    public void testExtract_transparentBitmap_primaryIsTransparent() {
+        Bitmap bitmap = createBitmap(Color.TRANSPARENT, Color.TRANSPARENT);
+
+        WallpaperColors colors = WallpaperColorQuantizer.extract(bitmap);
+
+        assertEquals(Color.TRANSPARENT, colors.getPrimaryColor().toArgb());
+    }
+
+    /**
+     * Returns a bitmap small enough not to be scaled down, whose top three quarters are of the
+     * given main color and bottom quarter of the given other color.
+     */
+    private static Bitmap createBitmap(int mainColor, int otherColor) {
+        int[] pixels = new int[SIZE * SIZE];
+        int mainPixelCount = SIZE * SIZE * 3 / 4;
+        Arrays.fill(pixels, 0, mainPixelCount, mainColor);
+        Arrays.fill(pixels, mainPixelCount, pixels.length, otherColor);
+        return Bitmap.createBitmap(pixels, SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
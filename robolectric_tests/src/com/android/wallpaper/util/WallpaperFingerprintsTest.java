@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class WallpaperFingerprintsTest {
+    private static final int CHUNK_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompute_emptyFile_isNonZeroAndStable() throws IOException {
+        File file = createFile(new byte[0]);
+
+        long fingerprint = compute(file, CHUNK_SIZE);
+
+        assertNotEquals(0, fingerprint);
+        assertEquals(fingerprint, compute(file, CHUNK_SIZE));
+        assertNotEquals(fingerprint, compute(createFile(new byte[1]), CHUNK_SIZE));
+    }
+
+    @Test
+    public void testCompute_exactMultipleOfChunks_sameAsSingleChunk() throws IOException {
+        File file = createFile(createBytes(4 * CHUNK_SIZE));
+
+        assertEquals(compute(file, 4 * CHUNK_SIZE), compute(file, CHUNK_SIZE));
+    }
+
+    @Test
+    public void testCompute_onePastChunkBoundary_sameAsSingleChunk() throws IOException {
+        File file = createFile(createBytes(4 * CHUNK_SIZE + 1));
+
+        assertEquals(compute(file, 8 * CHUNK_SIZE), compute(file, CHUNK_SIZE));
+    }
+
+    @Test
+    public void testCompute_onePastChunkBoundary_lastByteChangesFingerprint() throws IOException {
+        byte[] bytes = createBytes(4 * CHUNK_SIZE + 1);
+        long fingerprint = compute(createFile(bytes), CHUNK_SIZE);
+
+        bytes[bytes.length - 1]++;
+
+        assertNotEquals(fingerprint, compute(createFile(bytes), CHUNK_SIZE));
+    }
+
+    @Test
+    public void testFinish_zeroFingerprint_fallsBackToOne() {
+        // The final mix maps 0 to itself, so a zero hash is the one which needs the fallback.
+        assertEquals(1, WallpaperFingerprints.finish(0));
+        assertNotEquals(0, WallpaperFingerprints.finish(1));
+    }
+
+    private File createFile(byte[] bytes) throws IOException {
+        File file = mTemporaryFolder.newFile();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(bytes);
+        }
+        return file;
+    }
+
+    private static byte[] createBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(/* seed= */ 42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long compute(File file, long maxChunkSize) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            return WallpaperFingerprints.compute(inputStream.getChannel(), maxChunkSize);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.Display;
@@ -35,21 +36,101 @@ import android.widget.ImageView;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.android.wallpaper.R;
 import com.android.wallpaper.module.BitmapCropper;
+import com.android.wallpaper.module.DecodeScheduler;
+import com.android.wallpaper.module.DecodeScheduler.Lane;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.CustomTarget;
+import com.bumptech.glide.request.transition.Transition;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Interface representing an image asset.
  */
 public abstract class Asset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
+
+    /**
+     * Queues the given work on the app's shared {@link DecodeScheduler} in the given lane.
+     *
+     * @return a Future which can be used to cancel the work if it hasn't started yet.
+     */
+    protected static Future<?> runOnDecodeScheduler(@Lane int lane, Runnable task) {
+        return InjectorProvider.getInjector().getDecodeScheduler().submit(lane, task);
+    }
+
+    /**
+     * Queues the given work on the app's shared {@link DecodeScheduler} in the given lane, and
+     * removes it from the queue if the given signal is cancelled before the work has started.
+     */
+    protected static void runOnDecodeScheduler(@Lane int lane,
+            @Nullable CancellationSignal cancellationSignal, Runnable task) {
+        if (isCanceled(cancellationSignal)) {
+            return;
+        }
+        Future<?> future = runOnDecodeScheduler(lane, () -> {
+            // A signal only keeps its latest cancel listener, so when it is shared by several
+            // requests the older ones are skipped here instead of being removed from the queue.
+            if (!isCanceled(cancellationSignal)) {
+                task.run();
+            }
+        });
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(() -> future.cancel(false));
+        }
+    }
+
+    /**
+     * Returns whether the given (optional) cancellation signal has been cancelled.
+     */
+    protected static boolean isCanceled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
+    /**
+     * Cancels the decoding request started by {@link #loadDrawable(Context, ImageView, int)} for
+     * the given ImageView, if any is still pending. Should be called when the view is recycled or
+     * detached, so that decoding work whose result will never be shown is dropped.
+     */
+    public static void cancelPendingDecode(ImageView imageView) {
+        Object pendingSignal = imageView.getTag(R.id.tag_pending_decode);
+        if (pendingSignal instanceof CancellationSignal) {
+            ((CancellationSignal) pendingSignal).cancel();
+        }
+        imageView.setTag(R.id.tag_pending_decode, null);
+    }
+
+    /**
+     * Sets the listener told about the drawables {@link #loadDrawable(Context, ImageView, int)}
+     * loads into the given ImageView with Glide, including their {@link
+     * com.bumptech.glide.load.DataSource}, or clears it if null. Applies to loads started after
+     * this call only.
+     */
+    public static void setDrawableRequestListener(ImageView imageView,
+            @Nullable RequestListener<Drawable> listener) {
+        imageView.setTag(R.id.tag_drawable_request_listener, listener);
+    }
+
+    /**
+     * Returns the listener set with {@link #setDrawableRequestListener} for the given ImageView,
+     * which Glide-backed implementations of {@link #loadDrawable(Context, ImageView, int)} pass to
+     * their request.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    protected static RequestListener<Drawable> getDrawableRequestListener(ImageView imageView) {
+        return (RequestListener<Drawable>) imageView.getTag(R.id.tag_drawable_request_listener);
+    }
+
     /**
      * Creates and returns a placeholder Drawable instance sized exactly to the target ImageView and
      * filled completely with pixels of the provided placeholder color.
@@ -85,6 +166,22 @@ public abstract class Asset {
      */
     public abstract void decodeBitmap(int targetWidth, int targetHeight, BitmapReceiver receiver);
 
+    /**
+     * Same as {@link #decodeBitmap(int, int, BitmapReceiver)}, but the request can be aborted
+     * with the given signal. Once the signal is cancelled, decoding work which hasn't started yet
+     * is dropped, and the receiver isn't called.
+     *
+     * @param cancellationSignal Signal to cancel the request, or null if it can't be cancelled.
+     */
+    public void decodeBitmap(int targetWidth, int targetHeight,
+            @Nullable CancellationSignal cancellationSignal, BitmapReceiver receiver) {
+        decodeBitmap(targetWidth, targetHeight, bitmap -> {
+            if (!isCanceled(cancellationSignal)) {
+                receiver.onBitmapDecoded(bitmap);
+            }
+        });
+    }
+
     /**
      * For {@link #decodeBitmap(int, int, BitmapReceiver)} to use when it is done. It then call
      * the receiver with decoded bitmap in the main thread.
@@ -96,6 +193,19 @@ public abstract class Asset {
         new Handler(Looper.getMainLooper()).post(() -> receiver.onBitmapDecoded(decodedBitmap));
     }
 
+    /**
+     * Same as {@link #decodeBitmapCompleted(BitmapReceiver, Bitmap)}, but the receiver isn't
+     * called if the request was cancelled in the meantime.
+     */
+    protected void decodeBitmapCompleted(BitmapReceiver receiver, Bitmap decodedBitmap,
+            @Nullable CancellationSignal cancellationSignal) {
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (!isCanceled(cancellationSignal)) {
+                receiver.onBitmapDecoded(decodedBitmap);
+            }
+        });
+    }
+
     /**
      * Decodes and downscales a bitmap region off the main UI thread.
      * @param rect         Rect representing the crop region in terms of the original image's
@@ -109,6 +219,22 @@ public abstract class Asset {
     public abstract void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver);
 
+    /**
+     * Same as {@link #decodeBitmapRegion(Rect, int, int, boolean, BitmapReceiver)}, but the
+     * request can be aborted with the given signal.
+     *
+     * @param cancellationSignal Signal to cancel the request, or null if it can't be cancelled.
+     */
+    public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
+            boolean shouldAdjustForRtl, @Nullable CancellationSignal cancellationSignal,
+            BitmapReceiver receiver) {
+        decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl, bitmap -> {
+            if (!isCanceled(cancellationSignal)) {
+                receiver.onBitmapDecoded(bitmap);
+            }
+        });
+    }
+
     /**
      * Calculates the raw dimensions of the asset at its original resolution off the main UI thread.
      * Avoids decoding the entire bitmap if possible to conserve memory.
@@ -122,6 +248,21 @@ public abstract class Asset {
     public abstract void decodeRawDimensions(@Nullable Activity activity,
             DimensionsReceiver receiver);
 
+    /**
+     * Same as {@link #decodeRawDimensions(Activity, DimensionsReceiver)}, but the request can be
+     * aborted with the given signal.
+     *
+     * @param cancellationSignal Signal to cancel the request, or null if it can't be cancelled.
+     */
+    public void decodeRawDimensions(@Nullable Activity activity,
+            @Nullable CancellationSignal cancellationSignal, DimensionsReceiver receiver) {
+        decodeRawDimensions(activity, dimensions -> {
+            if (!isCanceled(cancellationSignal)) {
+                receiver.onDimensionsDecoded(dimensions);
+            }
+        });
+    }
+
     /**
      * Returns whether this asset has access to a separate, lower fidelity source of image data
      * (that may be able to be loaded more quickly to simulate progressive loading).
@@ -158,6 +299,14 @@ public abstract class Asset {
      */
     public abstract boolean supportsTiling();
 
+    /**
+     * Releases native resources, such as region decoders, which the asset keeps around to speed up
+     * subsequent decoding requests. The asset remains usable and reacquires them as needed.
+     */
+    public void releaseResources() {
+        // No resources are kept by default.
+    }
+
     /**
      * Loads a Drawable for this asset into the provided ImageView. While waiting for the image to
      * load, first loads a ColorDrawable based on the provided placeholder color.
@@ -187,9 +336,15 @@ public abstract class Asset {
                 ? imageView.getHeight()
                 : Math.abs(imageView.getLayoutParams().height);
 
-        decodeBitmap(width, height, new BitmapReceiver() {
+        // Drop any decoding still pending for a previous asset bound to the same view.
+        cancelPendingDecode(imageView);
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        imageView.setTag(R.id.tag_pending_decode, cancellationSignal);
+
+        decodeBitmap(width, height, cancellationSignal, new BitmapReceiver() {
             @Override
             public void onBitmapDecoded(Bitmap bitmap) {
+                imageView.setTag(R.id.tag_pending_decode, null);
                 if (!needsTransition) {
                     imageView.setImageBitmap(bitmap);
                     return;
@@ -211,6 +366,56 @@ public abstract class Asset {
         });
     }
 
+    /**
+     * Starts loading, at low priority, the drawable {@link #loadDrawable} would load into a center
+     * cropped ImageView of the given size, so that loading it there later is served from memory.
+     * Should be called on the main UI thread.
+     *
+     * @param onPrefetched Called on the main UI thread once the drawable is in memory, unless the
+     *                     prefetch was cancelled first.
+     * @return whether a prefetch was started. Assets whose drawables aren't kept in memory don't
+     * prefetch anything.
+     */
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        return false;
+    }
+
+    /**
+     * Implements {@link #prefetchDrawable} for assets loaded with Glide from the given model and
+     * options. The Glide request is only made from the {@link DecodeScheduler#LANE_PREFETCH
+     * prefetch lane}, so that it waits for the work queued for visible tiles and previews.
+     */
+    protected static boolean prefetchWithGlide(Context context, Object model,
+            RequestOptions options, int width, int height, CancellationSignal cancellationSignal,
+            Runnable onPrefetched) {
+        if (!options.isMemoryCacheable()) {
+            return false;
+        }
+        // Match the transformation Glide adds when loading into a center cropped ImageView, as
+        // it is part of the key of the cached drawable.
+        RequestOptions prefetchOptions = options.clone().priority(Priority.LOW);
+        if (!prefetchOptions.isTransformationSet()) {
+            prefetchOptions = prefetchOptions.optionalCenterCrop();
+        }
+        RequestOptions finalPrefetchOptions = prefetchOptions;
+        Context appContext = context.getApplicationContext();
+        PrefetchTarget target = new PrefetchTarget(appContext, width, height, onPrefetched);
+        runOnDecodeScheduler(DecodeScheduler.LANE_PREFETCH, cancellationSignal, () ->
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    if (isCanceled(cancellationSignal)) {
+                        return;
+                    }
+                    cancellationSignal.setOnCancelListener(target::clear);
+                    Glide.with(appContext)
+                            .asDrawable()
+                            .load(model)
+                            .apply(finalPrefetchOptions)
+                            .into(target);
+                }));
+        return true;
+    }
+
     /**
      * Loads a Drawable for this asset into the provided ImageView, providing a crossfade transition
      * with the given duration from the Drawable previously set on the ImageView.
@@ -384,11 +589,11 @@ public abstract class Asset {
 
     /**
      * Returns a copy of the given bitmap which is center cropped and scaled
-     * to fit in the given ImageView and the thread runs on ExecutorService.
+     * to fit in the given ImageView and the work runs on the {@link DecodeScheduler}.
      */
     public void centerCropBitmap(Bitmap bitmap, View view, BitmapReceiver bitmapReceiver) {
         Point imageViewDimensions = getViewDimensions(view);
-        sExecutorService.execute(() -> {
+        runOnDecodeScheduler(DecodeScheduler.LANE_VISIBLE_TILE, () -> {
             int measuredWidth = imageViewDimensions.x;
             int measuredHeight = imageViewDimensions.y;
 
@@ -414,4 +619,36 @@ public abstract class Asset {
             decodeBitmapCompleted(bitmapReceiver, result);
         });
     }
+
+    /**
+     * Glide target which only holds on to a prefetched drawable until it is in memory, then
+     * releases it to Glide's memory cache for the ImageView which will show it.
+     */
+    private static class PrefetchTarget extends CustomTarget<Drawable> {
+        private final Context mAppContext;
+        private final Runnable mOnPrefetched;
+
+        PrefetchTarget(Context appContext, int width, int height, Runnable onPrefetched) {
+            super(width, height);
+            mAppContext = appContext;
+            mOnPrefetched = onPrefetched;
+        }
+
+        @Override
+        public void onResourceReady(Drawable resource,
+                @Nullable Transition<? super Drawable> transition) {
+            // Clearing the target from its own callback isn't allowed, so defer it.
+            new Handler(Looper.getMainLooper()).post(this::clear);
+            mOnPrefetched.run();
+        }
+
+        @Override
+        public void onLoadCleared(@Nullable Drawable placeholder) {
+            // No-op
+        }
+
+        void clear() {
+            Glide.with(mAppContext).clear(this);
+        }
+    }
 }
@@ -17,15 +17,24 @@ package com.android.wallpaper.asset;
 
 import android.app.Activity;
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.os.CancellationSignal;
 import android.util.LruCache;
+import android.util.Pair;
 import android.widget.ImageView;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityManagerCompat;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -34,105 +43,303 @@ import java.util.Objects;
  * the same bitmap multiple times.
  * The cache key is the wrapped Asset and the target Width and Height requested, so that we only
  * reuse bitmaps of the same size.
+ * Concurrent requests for the same key are coalesced: while a decode is in flight, further requests
+ * for the same key wait for it instead of starting their own.
+ * The cache is sized as a fraction of the app's memory class (a smaller one on low RAM devices) and
+ * shrinks when the system signals memory pressure.
  */
 public class BitmapCachingAsset extends Asset {
 
-    private static class CacheKey {
-        final Asset mAsset;
-        final int mWidth;
-        final int mHeight;
-        final boolean mRtl;
-        final Rect mRect;
+    /**
+     * Cache key made of primitive fields only, covering everything which identifies a decoded
+     * bitmap: the original asset, the target size (which determines the sample size used for the
+     * decode), the RTL adjustment and the region rect, if any. The hash code is computed once per
+     * key, and a single mutable instance is reused for lookups so that they don't allocate.
+     */
+    private static final class CacheKey {
+        private Asset mAsset;
+        private int mWidth;
+        private int mHeight;
+        private boolean mRtl;
+        private boolean mHasRect;
+        private int mLeft;
+        private int mTop;
+        private int mRight;
+        private int mBottom;
+        private int mHashCode;
 
-        CacheKey(Asset asset, int width, int height) {
-            this(asset, width, height, false, null);
+        CacheKey() {
         }
 
-        CacheKey(Asset asset, int width, int height, boolean rtl, Rect rect) {
+        CacheKey set(Asset asset, int width, int height, boolean rtl, @Nullable Rect rect) {
             mAsset = asset;
             mWidth = width;
             mHeight = height;
             mRtl = rtl;
-            mRect = rect;
+            mHasRect = rect != null;
+            mLeft = mHasRect ? rect.left : 0;
+            mTop = mHasRect ? rect.top : 0;
+            mRight = mHasRect ? rect.right : 0;
+            mBottom = mHasRect ? rect.bottom : 0;
+
+            int result = asset.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + (rtl ? 1 : 0);
+            result = 31 * result + (mHasRect ? 1 : 0);
+            result = 31 * result + mLeft;
+            result = 31 * result + mTop;
+            result = 31 * result + mRight;
+            result = 31 * result + mBottom;
+            mHashCode = result;
+            return this;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(mAsset, mWidth, mHeight);
+            return mHashCode;
         }
 
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof CacheKey
-                    && (Objects.equals(this.mAsset, ((CacheKey) obj).mAsset))
-                    && ((CacheKey) obj).mWidth == this.mWidth
-                    && ((CacheKey) obj).mHeight == this.mHeight
-                    && ((CacheKey) obj).mRtl == this.mRtl
-                    && (Objects.equals(this.mRect, ((CacheKey) obj).mRect));
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return mHashCode == other.mHashCode
+                    && mWidth == other.mWidth
+                    && mHeight == other.mHeight
+                    && mRtl == other.mRtl
+                    && mHasRect == other.mHasRect
+                    && mLeft == other.mLeft
+                    && mTop == other.mTop
+                    && mRight == other.mRight
+                    && mBottom == other.mBottom
+                    && Objects.equals(mAsset, other.mAsset);
         }
     }
 
-    private static int cacheSize = 100 * 1024 * 1024; // 100MiB
-    private static LruCache<CacheKey, Bitmap> sCache = new LruCache<CacheKey, Bitmap>(cacheSize) {
-        @Override protected int sizeOf(CacheKey key, Bitmap value) {
-            return value.getByteCount();
-        }
-    };
+    /**
+     * A decode in flight along with the requests waiting for its result.
+     */
+    private static class PendingDecode {
+        final CancellationSignal mCancellationSignal = new CancellationSignal();
+        final List<Pair<BitmapReceiver, CancellationSignal>> mRequests = new ArrayList<>();
+    }
+
+    /**
+     * Starts the actual decode of a {@link PendingDecode} on the original asset.
+     */
+    private interface Decoder {
+        void decode(CancellationSignal cancellationSignal, BitmapReceiver receiver);
+    }
+
+    private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+    // Fraction of the memory class used for the cache, i.e. 1/4 of it on regular devices and
+    // 1/16 of it on low RAM devices.
+    private static final int MEMORY_CLASS_DIVISOR = 4;
+    private static final int LOW_RAM_MEMORY_CLASS_DIVISOR = 16;
+
+    private static volatile LruCache<CacheKey, Bitmap> sCache;
+    /** Reusable key for cache lookups. Only accessed while holding the lock on itself. */
+    private static final CacheKey sLookupKey = new CacheKey();
+
+    /**
+     * Decodes in flight, by key. Only accessed while holding the lock on the map itself.
+     */
+    private static final Map<CacheKey, PendingDecode> sPendingDecodes = new HashMap<>();
 
-    private final boolean mIsLowRam;
     private final Asset mOriginalAsset;
 
     public BitmapCachingAsset(Context context, Asset originalAsset) {
         mOriginalAsset = originalAsset instanceof BitmapCachingAsset
                 ? ((BitmapCachingAsset) originalAsset).mOriginalAsset : originalAsset;
-        mIsLowRam = ActivityManagerCompat.isLowRamDevice(
-                (ActivityManager) context.getApplicationContext().getSystemService(
-                        Context.ACTIVITY_SERVICE));
+        ensureCache(context.getApplicationContext());
     }
 
-    @Override
-    public void decodeBitmap(int targetWidth, int targetHeight, BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmap(targetWidth, targetHeight, receiver::onBitmapDecoded);
+    /**
+     * Returns the number of requests which were served from the cache.
+     */
+    public static synchronized int getCacheHitCount() {
+        return sCache != null ? sCache.hitCount() : 0;
+    }
+
+    /**
+     * Returns the number of requests which weren't in the cache and needed a decode.
+     */
+    public static synchronized int getCacheMissCount() {
+        return sCache != null ? sCache.missCount() : 0;
+    }
+
+    /**
+     * Returns the number of bitmaps evicted from the cache, either because it was full or because
+     * of memory pressure.
+     */
+    public static synchronized int getCacheEvictionCount() {
+        return sCache != null ? sCache.evictionCount() : 0;
+    }
+
+    private static synchronized void ensureCache(Context appContext) {
+        if (sCache != null) {
             return;
         }
-        CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight);
-        Bitmap cached = sCache.get(key);
+        ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int divisor = ActivityManagerCompat.isLowRamDevice(activityManager)
+                ? LOW_RAM_MEMORY_CLASS_DIVISOR : MEMORY_CLASS_DIVISOR;
+        int cacheSize = activityManager.getMemoryClass() * BYTES_PER_MEGABYTE / divisor;
+        sCache = new LruCache<CacheKey, Bitmap>(cacheSize) {
+            @Override protected int sizeOf(CacheKey key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimCache(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                // No-op
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimCache(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+    }
+
+    /**
+     * Evicts bitmaps until the cache is under the watermark matching the given trim level.
+     */
+    private static void trimCache(int level) {
+        LruCache<CacheKey, Bitmap> cache = sCache;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void decodeBitmap(int targetWidth, int targetHeight, BitmapReceiver receiver) {
+        decodeBitmap(targetWidth, targetHeight, /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmap(int targetWidth, int targetHeight,
+            @Nullable CancellationSignal cancellationSignal, BitmapReceiver receiver) {
+        Bitmap cached = getCachedBitmap(targetWidth, targetHeight, /* rtl= */ false,
+                /* rect= */ null);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
-            mOriginalAsset.decodeBitmap(targetWidth, targetHeight, bitmap -> {
-                if (bitmap != null) {
-                    sCache.put(key, bitmap);
-                }
-                receiver.onBitmapDecoded(bitmap);
-            });
+            CacheKey key = new CacheKey().set(mOriginalAsset, targetWidth, targetHeight,
+                    /* rtl= */ false, /* rect= */ null);
+            decodeOnce(key, cancellationSignal, receiver,
+                    (pendingSignal, pendingReceiver) -> mOriginalAsset.decodeBitmap(
+                            targetWidth, targetHeight, pendingSignal, pendingReceiver));
         }
     }
 
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    receiver);
-            return;
-        }
-        CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight, shouldAdjustForRtl,
-                rect);
-        Bitmap cached = sCache.get(key);
+        decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
+                /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
+            boolean shouldAdjustForRtl, @Nullable CancellationSignal cancellationSignal,
+            BitmapReceiver receiver) {
+        Bitmap cached = getCachedBitmap(targetWidth, targetHeight, shouldAdjustForRtl, rect);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    bitmap -> {
-                        if (bitmap != null) {
-                            sCache.put(key, bitmap);
-                        }
-                        receiver.onBitmapDecoded(bitmap);
-                    });
+            CacheKey key = new CacheKey().set(mOriginalAsset, targetWidth, targetHeight,
+                    shouldAdjustForRtl, rect);
+            decodeOnce(key, cancellationSignal, receiver,
+                    (pendingSignal, pendingReceiver) -> mOriginalAsset.decodeBitmapRegion(rect,
+                            targetWidth, targetHeight, shouldAdjustForRtl, pendingSignal,
+                            pendingReceiver));
+        }
+    }
+
+    @Nullable
+    private Bitmap getCachedBitmap(int targetWidth, int targetHeight, boolean rtl,
+            @Nullable Rect rect) {
+        synchronized (sLookupKey) {
+            return sCache.get(
+                    sLookupKey.set(mOriginalAsset, targetWidth, targetHeight, rtl, rect));
+        }
+    }
+
+    /**
+     * Attaches the given receiver to the decode in flight for the given key, and starts that decode
+     * with the given decoder if there is none yet. The shared decode is only cancelled once every
+     * request attached to it has been cancelled.
+     */
+    private static void decodeOnce(CacheKey key, @Nullable CancellationSignal cancellationSignal,
+            BitmapReceiver receiver, Decoder decoder) {
+        PendingDecode pendingDecode;
+        boolean isNewDecode = false;
+        synchronized (sPendingDecodes) {
+            pendingDecode = sPendingDecodes.get(key);
+            if (pendingDecode == null) {
+                pendingDecode = new PendingDecode();
+                sPendingDecodes.put(key, pendingDecode);
+                isNewDecode = true;
+            }
+            pendingDecode.mRequests.add(Pair.create(receiver, cancellationSignal));
+        }
+
+        final PendingDecode finalPendingDecode = pendingDecode;
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(
+                    () -> onRequestCancelled(key, finalPendingDecode));
+        }
+        if (isNewDecode) {
+            decoder.decode(pendingDecode.mCancellationSignal,
+                    bitmap -> onDecodeCompleted(key, finalPendingDecode, bitmap));
+        }
+    }
+
+    private static void onRequestCancelled(CacheKey key, PendingDecode pendingDecode) {
+        synchronized (sPendingDecodes) {
+            pendingDecode.mRequests.removeIf(request -> isCanceled(request.second));
+            if (!pendingDecode.mRequests.isEmpty() || sPendingDecodes.get(key) != pendingDecode) {
+                return;
+            }
+            sPendingDecodes.remove(key);
+        }
+        pendingDecode.mCancellationSignal.cancel();
+    }
+
+    private static void onDecodeCompleted(CacheKey key, PendingDecode pendingDecode,
+            @Nullable Bitmap bitmap) {
+        List<Pair<BitmapReceiver, CancellationSignal>> requests;
+        synchronized (sPendingDecodes) {
+            if (sPendingDecodes.get(key) == pendingDecode) {
+                sPendingDecodes.remove(key);
+            }
+            requests = new ArrayList<>(pendingDecode.mRequests);
+            pendingDecode.mRequests.clear();
+        }
+        if (bitmap != null) {
+            sCache.put(key, bitmap);
+        }
+        for (Pair<BitmapReceiver, CancellationSignal> request : requests) {
+            if (!isCanceled(request.second)) {
+                request.first.onBitmapDecoded(bitmap);
+            }
         }
     }
 
@@ -141,11 +348,22 @@ public class BitmapCachingAsset extends Asset {
         mOriginalAsset.decodeRawDimensions(activity, receiver);
     }
 
+    @Override
+    public void decodeRawDimensions(@Nullable Activity activity,
+            @Nullable CancellationSignal cancellationSignal, DimensionsReceiver receiver) {
+        mOriginalAsset.decodeRawDimensions(activity, cancellationSignal, receiver);
+    }
+
     @Override
     public boolean supportsTiling() {
         return mOriginalAsset.supportsTiling();
     }
 
+    @Override
+    public void releaseResources() {
+        mOriginalAsset.releaseResources();
+    }
+
     @Override
     public void loadPreviewImage(Activity activity, ImageView imageView, int placeholderColor) {
         // Honor the original Asset's preview image loading
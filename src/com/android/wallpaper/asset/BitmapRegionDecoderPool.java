@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.BitmapRegionDecoder;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide pool of {@link BitmapRegionDecoder}s keyed by asset identity, so that equal
+ * {@link StreamableAsset} instances share a single decoder instead of each opening their own over
+ * the full image.
+ *
+ * <p>Decoders are reference counted: every {@link #acquire} must be paired with a {@link #release}.
+ * A decoder nobody holds is recycled after {@link #IDLE_TIMEOUT_MS}, or right away once
+ * {@link #evict} has been called for its asset.
+ */
+final class BitmapRegionDecoderPool {
+    private static final long IDLE_TIMEOUT_MS = 10_000;
+
+    private static final BitmapRegionDecoderPool sInstance = new BitmapRegionDecoderPool();
+
+    private final Map<StreamableAsset, Entry> mEntries = new HashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    static BitmapRegionDecoderPool getInstance() {
+        return sInstance;
+    }
+
+    private BitmapRegionDecoderPool() {
+    }
+
+    /**
+     * Returns the shared decoder of the given asset, opening it if needed, or null if it couldn't
+     * be opened. Should only be called off the main UI thread. The caller must call
+     * {@link #release} once done with the decoder, even if null was returned.
+     */
+    @Nullable
+    BitmapRegionDecoder acquire(StreamableAsset asset) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(asset);
+            if (entry == null) {
+                entry = new Entry(asset);
+                mEntries.put(asset, entry);
+            }
+            entry.mRefCount++;
+            mHandler.removeCallbacks(entry.mIdleTimeout);
+        }
+
+        // Open outside of the pool lock so that opening a decoder doesn't hold up other assets.
+        synchronized (entry) {
+            if (entry.mDecoder == null) {
+                entry.mDecoder = asset.openBitmapRegionDecoder();
+            }
+            return entry.mDecoder;
+        }
+    }
+
+    /**
+     * Gives back a decoder obtained from {@link #acquire}.
+     */
+    void release(StreamableAsset asset) {
+        Entry idleEntry = null;
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(asset);
+            if (entry == null || --entry.mRefCount > 0) {
+                return;
+            }
+            if (entry.mEvictWhenIdle) {
+                mEntries.remove(asset);
+                idleEntry = entry;
+            } else {
+                mHandler.postDelayed(entry.mIdleTimeout, IDLE_TIMEOUT_MS);
+            }
+        }
+        if (idleEntry != null) {
+            idleEntry.recycle();
+        }
+    }
+
+    /**
+     * Recycles the decoder of the given asset without waiting for the idle timeout, or as soon as
+     * it is released if it is currently in use.
+     */
+    void evict(StreamableAsset asset) {
+        Entry idleEntry = null;
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(asset);
+            if (entry == null) {
+                return;
+            }
+            if (entry.mRefCount > 0) {
+                entry.mEvictWhenIdle = true;
+                return;
+            }
+            mEntries.remove(asset);
+            mHandler.removeCallbacks(entry.mIdleTimeout);
+            idleEntry = entry;
+        }
+        idleEntry.recycle();
+    }
+
+    private void onIdleTimeout(Entry entry) {
+        synchronized (mEntries) {
+            if (entry.mRefCount > 0 || mEntries.get(entry.mAsset) != entry) {
+                return;
+            }
+            mEntries.remove(entry.mAsset);
+        }
+        entry.recycle();
+    }
+
+    private final class Entry {
+        private final StreamableAsset mAsset;
+        private final Runnable mIdleTimeout = () -> onIdleTimeout(this);
+
+        // Guarded by mEntries.
+        private int mRefCount;
+        private boolean mEvictWhenIdle;
+
+        // Guarded by this entry.
+        private BitmapRegionDecoder mDecoder;
+
+        Entry(StreamableAsset asset) {
+            mAsset = asset;
+        }
+
+        synchronized void recycle() {
+            if (mDecoder != null) {
+                mDecoder.recycle();
+                mDecoder = null;
+            }
+        }
+    }
+}
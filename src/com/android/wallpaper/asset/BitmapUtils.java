@@ -16,8 +16,16 @@
 package com.android.wallpaper.asset;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.RectF;
+
+import androidx.annotation.Nullable;
 
 /**
  * Collection of static utility methods for decoding and processing Bitmaps.
@@ -25,6 +33,17 @@ import android.graphics.Rect;
 public class BitmapUtils {
     private static final float DEFAULT_CENTER_ALIGNMENT = 0.5f;
 
+    /**
+     * Number of output rows decoded at once by {@link #decodeRotatedRegion}.
+     */
+    private static final int ROTATED_DECODE_STRIP_ROWS = 256;
+
+    /**
+     * Minimum number of pixels of a decoded image for {@link #shouldDecodeRotatedRegion} to avoid
+     * its second full size copy, i.e. 32 MB in ARGB_8888.
+     */
+    private static final long ROTATED_DECODE_MIN_PIXELS = 8L * 1024 * 1024;
+
     // Suppress default constructor for noninstantiability.
     private BitmapUtils() {
         throw new AssertionError();
@@ -56,6 +75,109 @@ public class BitmapUtils {
         return 1 << shift;
     }
 
+    /**
+     * Returns whether an image of the given dimensions, decoded with the given subsampling factor,
+     * is large enough to be decoded with {@link #decodeRotatedRegion} rather than decoded whole and
+     * then rotated.
+     *
+     * <p>Smaller images are better decoded whole: it doesn't hold a region decoder open after the
+     * decode, and lets the result be a {@link Bitmap.Config#HARDWARE} bitmap, whereas
+     * {@link #decodeRotatedRegion} draws into an {@link Bitmap.Config#ARGB_8888} one.
+     */
+    public static boolean shouldDecodeRotatedRegion(int srcWidth, int srcHeight, int sampleSize) {
+        return (long) (srcWidth / sampleSize) * (srcHeight / sampleSize)
+                >= ROTATED_DECODE_MIN_PIXELS;
+    }
+
+    /**
+     * Decodes a region of an image straight into a bitmap rotated by the given degrees.
+     *
+     * <p>Decoding the region and then rotating it with {@link Bitmap#createBitmap(Bitmap, int, int,
+     * int, int, Matrix, boolean)} needs two full size bitmaps at once. Instead, the region is
+     * decoded in horizontal strips which are drawn rotated into the result, so that peak memory
+     * stays at one full size bitmap plus one strip.
+     *
+     * @param decoder    Decoder of the image.
+     * @param region     Region to decode, in terms of the image's unrotated resolution.
+     * @param sampleSize Subsampling factor to decode the region with.
+     * @param degrees    Rotation to apply as by {@link Matrix#setRotate(float)}, a multiple of 90.
+     * @return The rotated region, or null if a strip failed to decode.
+     */
+    @Nullable
+    public static Bitmap decodeRotatedRegion(BitmapRegionDecoder decoder, Rect region,
+            int sampleSize, int degrees) {
+        Point sampledSize = getSampledSize(region, sampleSize);
+        Matrix matrix = getRotationMatrix(sampledSize.x, sampledSize.y, degrees);
+        RectF rotatedBounds = new RectF(0, 0, sampledSize.x, sampledSize.y);
+        matrix.mapRect(rotatedBounds);
+
+        Bitmap result = Bitmap.createBitmap(Math.round(rotatedBounds.width()),
+                Math.round(rotatedBounds.height()), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        canvas.concat(matrix);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Rect strip = new Rect();
+        RectF destination = new RectF();
+        for (int top = region.top; top < region.bottom; top = strip.bottom) {
+            getStrip(region, top, sampleSize, strip);
+            Bitmap stripBitmap = decoder.decodeRegion(strip, options);
+            if (stripBitmap == null) {
+                result.recycle();
+                return null;
+            }
+            getStripDestination(region, strip, sampleSize, destination);
+            canvas.drawBitmap(stripBitmap, null, destination, paint);
+            stripBitmap.recycle();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the given region once subsampled by the given factor.
+     */
+    static Point getSampledSize(Rect region, int sampleSize) {
+        float scale = 1f / sampleSize;
+        return new Point(Math.max(1, Math.round(region.width() * scale)),
+                Math.max(1, Math.round(region.height() * scale)));
+    }
+
+    /**
+     * Returns a matrix rotating a bitmap of the given size by the given degrees, translated so that
+     * the rotated bitmap starts at the origin.
+     */
+    static Matrix getRotationMatrix(int width, int height, int degrees) {
+        Matrix matrix = new Matrix();
+        matrix.setRotate(degrees);
+        RectF rotatedBounds = new RectF(0, 0, width, height);
+        matrix.mapRect(rotatedBounds);
+        matrix.postTranslate(-rotatedBounds.left, -rotatedBounds.top);
+        return matrix;
+    }
+
+    /**
+     * Sets {@code outStrip} to the strip of the region starting at the given row, which spans
+     * {@link #ROTATED_DECODE_STRIP_ROWS} rows once subsampled, or up to the end of the region.
+     */
+    static void getStrip(Rect region, int top, int sampleSize, Rect outStrip) {
+        int stripHeight = sampleSize * ROTATED_DECODE_STRIP_ROWS;
+        outStrip.set(region.left, top, region.right, Math.min(top + stripHeight, region.bottom));
+    }
+
+    /**
+     * Sets {@code outDestination} to where the given strip of the region is drawn in the
+     * subsampled, unrotated region. The strip is mapped by its exact position so that rounding of
+     * the sampled strip sizes can't leave seams between strips.
+     */
+    static void getStripDestination(Rect region, Rect strip, int sampleSize,
+            RectF outDestination) {
+        float scale = 1f / sampleSize;
+        outDestination.set(0, (strip.top - region.top) * scale,
+                getSampledSize(region, sampleSize).x, (strip.bottom - region.top) * scale);
+    }
+
     /**
      * Generates a hash code for the given bitmap. Computation starts with a nonzero prime number,
      * then for the integer values of height, width, and a selection of pixel colors, multiplies the
@@ -63,6 +185,10 @@ public class BitmapUtils {
      * less than 32 which is 2 ^ 5, allowing the VM to replace multiplication by a bit shift and
      * subtraction for performance.
      * <p>
+     * Superseded by {@link com.android.wallpaper.util.WallpaperFingerprints}, which doesn't need
+     * the wallpaper to be decoded; only used to check hash codes saved by older versions of the
+     * app.
+     * <p>
      * This method should be called off the UI thread.
      */
     public static long generateHashCode(Bitmap bitmap) {
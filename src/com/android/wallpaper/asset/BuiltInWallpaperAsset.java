@@ -28,17 +28,20 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.module.DecodeScheduler;
+
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 /**
  * Asset representing the system's built-in wallpaper.
  * NOTE: This is only used for KitKat and newer devices. On older versions of Android, the
@@ -47,7 +50,6 @@ import java.util.concurrent.Executors;
  */
 @TargetApi(Build.VERSION_CODES.KITKAT)
 public final class BuiltInWallpaperAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final boolean SCALE_TO_FIT = true;
     private static final boolean CROP_TO_FIT = false;
     private static final float HORIZONTAL_CENTER_ALIGNED = 0.5f;
@@ -73,7 +75,7 @@ public final class BuiltInWallpaperAsset extends Asset {
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        runOnDecodeScheduler(DecodeScheduler.LANE_FULL_RES_PREVIEW, () -> {
             Point dimensions = calculateRawDimensions();
 
             float horizontalCenter = BitmapUtils.calculateHorizontalAlignment(dimensions, rect);
@@ -92,7 +94,7 @@ public final class BuiltInWallpaperAsset extends Asset {
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        sExecutorService.execute(() -> {
+        runOnDecodeScheduler(DecodeScheduler.LANE_FULL_RES_PREVIEW, () -> {
             Point dimensions = calculateRawDimensions();
             new Handler(Looper.getMainLooper()).post(
                     () -> receiver.onDimensionsDecoded(dimensions));
@@ -102,7 +104,13 @@ public final class BuiltInWallpaperAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        decodeBitmap(targetWidth, targetHeight, /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmap(int targetWidth, int targetHeight,
+            @Nullable CancellationSignal cancellationSignal, BitmapReceiver receiver) {
+        runOnDecodeScheduler(DecodeScheduler.LANE_VISIBLE_TILE, cancellationSignal, () -> {
             final WallpaperManager wallpaperManager = WallpaperManager.getInstance(mContext);
 
             Drawable drawable = wallpaperManager.getBuiltInDrawable(
@@ -117,7 +125,7 @@ public final class BuiltInWallpaperAsset extends Asset {
             wallpaperManager.forgetLoadedWallpaper();
 
             Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
-            decodeBitmapCompleted(receiver, bitmap);
+            decodeBitmapCompleted(receiver, bitmap, cancellationSignal);
         });
     }
 
@@ -145,17 +153,30 @@ public final class BuiltInWallpaperAsset extends Asset {
 
     @Override
     public void loadDrawable(Context context, ImageView imageView, int placeholderColor) {
-        if (mBuiltInWallpaperModel == null) {
-            mBuiltInWallpaperModel =
-                    new WallpaperModel(context.getApplicationContext(), WallpaperModel.SOURCE_BUILT_IN);
-        }
-
         Glide.with(context)
                 .asDrawable()
-                .load(mBuiltInWallpaperModel)
+                .load(getBuiltInWallpaperModel(context))
                 .apply(RequestOptions.centerCropTransform()
-                        .placeholder(new ColorDrawable(placeholderColor)))
+                        .placeholder(new ColorDrawable(placeholderColor))
+                        .diskCacheStrategy(DiskCacheStrategy.RESOURCE))
                 .transition(DrawableTransitionOptions.withCrossFade())
+                .listener(getDrawableRequestListener(imageView))
                 .into(imageView);
     }
+
+    @Override
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        return prefetchWithGlide(context, getBuiltInWallpaperModel(context),
+                RequestOptions.centerCropTransform().diskCacheStrategy(DiskCacheStrategy.RESOURCE),
+                width, height, cancellationSignal, onPrefetched);
+    }
+
+    private WallpaperModel getBuiltInWallpaperModel(Context context) {
+        if (mBuiltInWallpaperModel == null) {
+            mBuiltInWallpaperModel = new WallpaperModel(context.getApplicationContext(),
+                    WallpaperModel.SOURCE_BUILT_IN);
+        }
+        return mBuiltInWallpaperModel;
+    }
 }
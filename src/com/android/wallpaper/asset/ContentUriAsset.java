@@ -17,17 +17,23 @@ package com.android.wallpaper.asset;
 
 import android.app.Activity;
 import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.ImageView;
 
 import androidx.annotation.Nullable;
 
+import com.android.wallpaper.module.DecodeScheduler;
+
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.MultiTransformation;
@@ -41,16 +47,12 @@ import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
 
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Represents an asset located via an Android content URI.
  */
 public final class ContentUriAsset extends StreamableAsset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     private static final String TAG = "ContentUriAsset";
     private static final String JPEG_MIME_TYPE = "image/jpeg";
     private static final String PNG_MIME_TYPE = "image/png";
@@ -59,9 +61,6 @@ public final class ContentUriAsset extends StreamableAsset {
     private final Uri mUri;
     private final RequestOptions mRequestOptions;
 
-    private ExifInterfaceCompat mExifCompat;
-    private int mExifOrientation;
-
     /**
      * @param context The application's context.
      * @param uri     Content URI locating the asset.
@@ -72,7 +71,6 @@ public final class ContentUriAsset extends StreamableAsset {
      */
     public ContentUriAsset(Context context, Uri uri, RequestOptions requestOptions,
                            boolean uncached) {
-        mExifOrientation = ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN;
         mContext = context.getApplicationContext();
         mUri = uri;
 
@@ -118,15 +116,24 @@ public final class ContentUriAsset extends StreamableAsset {
     @Override
     public void decodeBitmapRegion(final Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, final BitmapReceiver receiver) {
+        decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
+                /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmapRegion(final Rect rect, int targetWidth, int targetHeight,
+            boolean shouldAdjustForRtl, @Nullable CancellationSignal cancellationSignal,
+            final BitmapReceiver receiver) {
         // BitmapRegionDecoder only supports images encoded in either JPEG or PNG, so if the content
         // URI asset is encoded with another format (for example, GIF), then fall back to cropping a
         // bitmap region from the full-sized bitmap.
         if (isJpeg() || isPng()) {
-            super.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl, receiver);
+            super.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
+                    cancellationSignal, receiver);
             return;
         }
 
-        decodeRawDimensions(null /* activity */, new DimensionsReceiver() {
+        decodeRawDimensions(null /* activity */, cancellationSignal, new DimensionsReceiver() {
             @Override
             public void onDimensionsDecoded(@Nullable Point dimensions) {
                 if (dimensions == null) {
@@ -136,18 +143,20 @@ public final class ContentUriAsset extends StreamableAsset {
                     return;
                 }
 
-                decodeBitmap(dimensions.x, dimensions.y, new BitmapReceiver() {
+                decodeBitmap(dimensions.x, dimensions.y, cancellationSignal, new BitmapReceiver() {
                     @Override
                     public void onBitmapDecoded(@Nullable Bitmap fullBitmap) {
                         if (fullBitmap == null) {
                             Log.e(TAG, "There was an error decoding the asset's full bitmap with " +
                                     "content URI: " + mUri);
-                            decodeBitmapCompleted(receiver, null);
+                            decodeBitmapCompleted(receiver, null, cancellationSignal);
                             return;
                         }
-                        sExecutorService.execute(()-> {
+                        runOnDecodeScheduler(DecodeScheduler.LANE_FULL_RES_PREVIEW,
+                                cancellationSignal, () -> {
                             decodeBitmapCompleted(receiver, Bitmap.createBitmap(
-                                    fullBitmap, rect.left, rect.top, rect.width(), rect.height()));
+                                    fullBitmap, rect.left, rect.top, rect.width(), rect.height()),
+                                    cancellationSignal);
                         });
                     }
                 });
@@ -155,11 +164,20 @@ public final class ContentUriAsset extends StreamableAsset {
         });
     }
 
+    /**
+     * Returns whether regions of this image can be decoded without decoding the full image, which
+     * is only the case for the formats {@link #decodeBitmapRegion} region decodes.
+     */
+    @Override
+    public boolean supportsTiling() {
+        return isJpeg() || isPng();
+    }
+
     /**
      * Returns whether this image is encoded in the JPEG file format.
      */
     public boolean isJpeg() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
+        String mimeType = getMimeType();
         return mimeType != null && mimeType.equals(JPEG_MIME_TYPE);
     }
 
@@ -167,10 +185,23 @@ public final class ContentUriAsset extends StreamableAsset {
      * Returns whether this image is encoded in the PNG file format.
      */
     public boolean isPng() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
+        String mimeType = getMimeType();
         return mimeType != null && mimeType.equals(PNG_MIME_TYPE);
     }
 
+    /**
+     * Returns the MIME type detected while probing the image if it has already been probed, or
+     * else the one reported by its content provider.
+     */
+    @Nullable
+    private String getMimeType() {
+        ImageMetadata metadata = peekMetadata();
+        if (metadata != null && metadata.getMimeType() != null) {
+            return metadata.getMimeType();
+        }
+        return mContext.getContentResolver().getType(mUri);
+    }
+
     /**
      * Reads the EXIF tag on the asset. Automatically trims leading and trailing whitespace.
      *
@@ -179,14 +210,14 @@ public final class ContentUriAsset extends StreamableAsset {
      * empty (i.e., only whitespace).
      */
     public String readExifTag(String tagId) {
-        ensureExifInterface();
-        if (mExifCompat == null) {
+        ImageMetadata metadata = getMetadata();
+        ExifInterfaceCompat exif = metadata != null ? metadata.getExif() : null;
+        if (exif == null) {
             Log.w(TAG, "Unable to read EXIF tags for content URI asset");
             return null;
         }
 
-
-        String attribute = mExifCompat.getAttribute(tagId);
+        String attribute = exif.getAttribute(tagId);
         if (attribute == null || attribute.trim().isEmpty()) {
             return null;
         }
@@ -194,19 +225,6 @@ public final class ContentUriAsset extends StreamableAsset {
         return attribute.trim();
     }
 
-    private void ensureExifInterface() {
-        if (mExifCompat == null) {
-            try (InputStream inputStream = openInputStream()) {
-                if (inputStream != null) {
-                    mExifCompat = new ExifInterfaceCompat(inputStream);
-                }
-            } catch (IOException e) {
-                Log.w(TAG, "Couldn't read stream for " + mUri, e);
-            }
-        }
-
-    }
-
     @Override
     protected InputStream openInputStream() {
         try {
@@ -219,28 +237,46 @@ public final class ContentUriAsset extends StreamableAsset {
 
     @Override
     protected int getExifOrientation() {
-        if (mExifOrientation != ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN) {
-            return mExifOrientation;
+        ImageMetadata metadata = getMetadata();
+        if (metadata == null || metadata.getExif() == null) {
+            Log.w(TAG, "Unable to read EXIF rotation for content URI asset with content URI: "
+                    + mUri);
+            return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
         }
+        return metadata.getExifOrientation();
+    }
+
+    @Override
+    protected boolean shouldReadExif() {
+        return true;
+    }
 
-        mExifOrientation = readExifOrientation();
-        return mExifOrientation;
+    @Override
+    protected String getMetadataCacheKey() {
+        return mUri + "@" + queryLastModified();
     }
 
     /**
-     * Returns the EXIF rotation for the content URI asset. This method should only be called off
-     * the main UI thread.
+     * Returns the last modification time reported by the content provider, or 0 if it reports
+     * none. This method should only be called off the main UI thread.
      */
-    private int readExifOrientation() {
-        ensureExifInterface();
-        if (mExifCompat == null) {
-            Log.w(TAG, "Unable to read EXIF rotation for content URI asset with content URI: "
-                    + mUri);
-            return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+    private long queryLastModified() {
+        // Documents providers and MediaStore name the column differently, and providers are free
+        // to reject projections with columns they don't know.
+        String[] columns = {
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                MediaStore.MediaColumns.DATE_MODIFIED};
+        for (String column : columns) {
+            try (Cursor cursor = mContext.getContentResolver().query(
+                    mUri, new String[] {column}, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return cursor.getLong(0);
+                }
+            } catch (RuntimeException e) {
+                // The provider doesn't know this column, try the next one.
+            }
         }
-
-        return mExifCompat.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
-                ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+        return 0;
     }
 
     @Override
@@ -252,9 +288,17 @@ public final class ContentUriAsset extends StreamableAsset {
                 .apply(mRequestOptions
                         .placeholder(new ColorDrawable(placeholderColor)))
                 .transition(DrawableTransitionOptions.withCrossFade())
+                .listener(getDrawableRequestListener(imageView))
                 .into(imageView);
     }
 
+    @Override
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        return prefetchWithGlide(context, mUri, mRequestOptions, width, height,
+                cancellationSignal, onPrefetched);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
@@ -301,4 +345,18 @@ public final class ContentUriAsset extends StreamableAsset {
     public Uri getUri() {
         return mUri;
     }
+
+    @Override
+    public int hashCode() {
+        return mUri.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object instanceof ContentUriAsset) {
+            ContentUriAsset otherAsset = (ContentUriAsset) object;
+            return mUri.equals(otherAsset.mUri);
+        }
+        return false;
+    }
 }
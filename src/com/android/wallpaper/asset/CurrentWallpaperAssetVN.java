@@ -22,6 +22,7 @@ import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
+import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelFileDescriptor.AutoCloseInputStream;
 import android.util.Log;
@@ -134,9 +135,18 @@ public class CurrentWallpaperAssetVN extends StreamableAsset {
                 .load(CurrentWallpaperAssetVN.this)
                 .apply(RequestOptions.centerCropTransform())
                 .transition(DrawableTransitionOptions.withCrossFade())
+                .listener(getDrawableRequestListener(imageView))
                 .into(imageView);
     }
 
+    @Override
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        return prefetchWithGlide(context, CurrentWallpaperAssetVN.this,
+                RequestOptions.centerCropTransform(), width, height, cancellationSignal,
+                onPrefetched);
+    }
+
     @Override
     protected void adjustCropRect(Context context, Point assetDimensions, Rect cropRect) {
         cropRect.offsetTo(0, 0);
@@ -46,4 +46,23 @@ public final class FileAsset extends StreamableAsset {
             return null;
         }
     }
+
+    @Override
+    protected String getMetadataCacheKey() {
+        return mFile.getAbsolutePath() + "@" + mFile.lastModified();
+    }
+
+    @Override
+    public int hashCode() {
+        return mFile.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object instanceof FileAsset) {
+            FileAsset otherAsset = (FileAsset) object;
+            return mFile.equals(otherAsset.mFile);
+        }
+        return false;
+    }
 }
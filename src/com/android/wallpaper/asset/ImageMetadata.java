@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Metadata of an encoded image, read in a single pass over its stream: the raw bounds, the MIME
+ * type and the EXIF tags.
+ *
+ * <p>Probed metadata is cached process-wide by a key which must change whenever the image does,
+ * and concurrent probes of the same key are coalesced into one.
+ */
+final class ImageMetadata {
+    private static final int MAX_CACHED_ENTRIES = 64;
+
+    private static final LruCache<String, ImageMetadata> sCache =
+            new LruCache<>(MAX_CACHED_ENTRIES);
+    private static final Map<String, Object> sProbeLocks = new HashMap<>();
+
+    private final int mWidth;
+    private final int mHeight;
+    @Nullable
+    private final String mMimeType;
+    @Nullable
+    private final ExifInterfaceCompat mExif;
+
+    /**
+     * @param width    Raw width of the encoded image, not adjusted for EXIF orientation.
+     * @param height   Raw height of the encoded image, not adjusted for EXIF orientation.
+     * @param mimeType MIME type as detected by the decoder, or null if it couldn't be detected.
+     * @param exif     EXIF tags of the image, or null if they weren't or couldn't be read.
+     */
+    ImageMetadata(int width, int height, @Nullable String mimeType,
+            @Nullable ExifInterfaceCompat exif) {
+        mWidth = width;
+        mHeight = height;
+        mMimeType = mimeType;
+        mExif = exif;
+    }
+
+    /**
+     * Returns the metadata cached for the given key, or runs the given probe to read it. Only one
+     * probe runs at a time for a given key; other callers wait for its result. Should only be
+     * called off the main UI thread.
+     */
+    @Nullable
+    static ImageMetadata get(String key, Supplier<ImageMetadata> probe) {
+        ImageMetadata metadata = sCache.get(key);
+        if (metadata != null) {
+            return metadata;
+        }
+
+        Object probeLock;
+        synchronized (sProbeLocks) {
+            probeLock = sProbeLocks.computeIfAbsent(key, unused -> new Object());
+        }
+        try {
+            synchronized (probeLock) {
+                // Another caller may have probed the image while this one was waiting.
+                metadata = sCache.get(key);
+                if (metadata == null) {
+                    metadata = probe.get();
+                    if (metadata != null) {
+                        sCache.put(key, metadata);
+                    }
+                }
+                return metadata;
+            }
+        } finally {
+            synchronized (sProbeLocks) {
+                sProbeLocks.remove(key, probeLock);
+            }
+        }
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    @Nullable
+    String getMimeType() {
+        return mMimeType;
+    }
+
+    @Nullable
+    ExifInterfaceCompat getExif() {
+        return mExif;
+    }
+
+    /**
+     * Returns the EXIF orientation of the image, or {@link
+     * ExifInterfaceCompat#EXIF_ORIENTATION_NORMAL} if it has none.
+     */
+    int getExifOrientation() {
+        if (mExif == null) {
+            return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+        }
+        return mExif.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
+                ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+    }
+}
@@ -26,11 +26,15 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.util.Log;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.android.wallpaper.module.DecodeScheduler;
+
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.MultiTransformation;
@@ -44,8 +48,6 @@ import com.bumptech.glide.request.RequestOptions;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -54,7 +56,6 @@ import java.util.concurrent.TimeoutException;
  */
 public class LiveWallpaperThumbAsset extends Asset {
     private static final String TAG = "LiveWallpaperThumbAsset";
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final int LOW_RES_THUMB_TIMEOUT_SECONDS = 2;
 
     protected final Context mContext;
@@ -76,14 +77,20 @@ public class LiveWallpaperThumbAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        decodeBitmap(targetWidth, targetHeight, /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmap(int targetWidth, int targetHeight,
+            @Nullable CancellationSignal cancellationSignal, BitmapReceiver receiver) {
+        runOnDecodeScheduler(DecodeScheduler.LANE_VISIBLE_TILE, cancellationSignal, () -> {
             Drawable thumb = getThumbnailDrawable();
 
             // Live wallpaper components may or may not specify a thumbnail drawable.
             if (thumb instanceof BitmapDrawable) {
                 decodeBitmapCompleted(receiver,
                         Bitmap.createScaledBitmap(((BitmapDrawable) thumb).getBitmap(), targetWidth,
-                                targetHeight, true));
+                                targetHeight, true), cancellationSignal);
                 return;
             } else if (thumb != null) {
                 Bitmap bitmap;
@@ -91,7 +98,7 @@ public class LiveWallpaperThumbAsset extends Asset {
                     bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(),
                             thumb.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
                 } else {
-                    decodeBitmapCompleted(receiver, null);
+                    decodeBitmapCompleted(receiver, null, cancellationSignal);
                     return;
                 }
 
@@ -99,10 +106,11 @@ public class LiveWallpaperThumbAsset extends Asset {
                 thumb.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
                 thumb.draw(canvas);
                 decodeBitmapCompleted(receiver,
-                        Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true));
+                        Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true),
+                        cancellationSignal);
                 return;
             }
-            decodeBitmapCompleted(receiver, null);
+            decodeBitmapCompleted(receiver, null, cancellationSignal);
         });
     }
 
@@ -141,9 +149,22 @@ public class LiveWallpaperThumbAsset extends Asset {
                 .load(LiveWallpaperThumbAsset.this)
                 .apply(reqOptions)
                 .transition(DrawableTransitionOptions.withCrossFade())
+                .listener(getDrawableRequestListener(imageView))
                 .into(imageView);
     }
 
+    @Override
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        // Thumbnails loaded from a URI skip the memory cache, so there's nothing to prefetch.
+        if (mUri != null) {
+            return false;
+        }
+        return prefetchWithGlide(context, LiveWallpaperThumbAsset.this,
+                RequestOptions.centerCropTransform(), width, height, cancellationSignal,
+                onPrefetched);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
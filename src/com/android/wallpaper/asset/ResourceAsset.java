@@ -16,27 +16,40 @@
 package com.android.wallpaper.asset;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.drawable.ColorDrawable;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.signature.ObjectKey;
 
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Image asset representing an APK resource.
  */
 public class ResourceAsset extends StreamableAsset {
+    // Versions of the packages containing resource assets, by package name, guarded by itself.
+    // Looking one up is a round trip to PackageManager, which would otherwise be made on the main
+    // thread for every tile bound.
+    private static final Map<String, String> sPackageVersions = new HashMap<>();
+
     protected final Resources mRes;
     protected final int mResId;
     private final RequestOptions mRequestOptions;
 
     protected Key mKey;
+    private Key mVersionKey;
 
     /**
      * @param res   Resources containing the asset.
@@ -64,11 +77,23 @@ public class ResourceAsset extends StreamableAsset {
                 .asDrawable()
                 .load(ResourceAsset.this)
                 .apply(mRequestOptions
-                        .placeholder(new ColorDrawable(placeholderColor)))
+                        .placeholder(new ColorDrawable(placeholderColor))
+                        .signature(getVersionKey(context))
+                        .diskCacheStrategy(DiskCacheStrategy.RESOURCE))
                 .transition(DrawableTransitionOptions.withCrossFade())
+                .listener(getDrawableRequestListener(imageView))
                 .into(imageView);
     }
 
+    @Override
+    public boolean prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal, Runnable onPrefetched) {
+        return prefetchWithGlide(context, ResourceAsset.this, mRequestOptions.clone()
+                        .signature(getVersionKey(context))
+                        .diskCacheStrategy(DiskCacheStrategy.RESOURCE),
+                width, height, cancellationSignal, onPrefetched);
+    }
+
     @Override
     public int hashCode() {
         return getKey().hashCode();
@@ -93,6 +118,53 @@ public class ResourceAsset extends StreamableAsset {
         return mKey;
     }
 
+    /**
+     * Returns a Glide signature identifying the version of the APK containing this resource.
+     * Thumbnails persisted in Glide's disk cache are keyed by it along with {@link #getKey()} and
+     * the target size, so they are invalidated whenever the APK is updated.
+     */
+    protected Key getVersionKey(Context context) {
+        if (mVersionKey == null) {
+            String packageName = mRes.getResourcePackageName(mResId);
+            mVersionKey =
+                    new ObjectKey(packageName + '@' + getPackageVersion(context, packageName));
+        }
+        return mVersionKey;
+    }
+
+    /**
+     * Forgets the cached version of the given package, so that resource assets created after it
+     * was updated look it up again. Should be called whenever a package is added, changed or
+     * removed.
+     */
+    public static void onPackageChanged(String packageName) {
+        synchronized (sPackageVersions) {
+            sPackageVersions.remove(packageName);
+        }
+    }
+
+    private static String getPackageVersion(Context context, String packageName) {
+        synchronized (sPackageVersions) {
+            String version = sPackageVersions.get(packageName);
+            if (version != null) {
+                return version;
+            }
+        }
+
+        String version;
+        try {
+            version = String.valueOf(context.getPackageManager()
+                    .getPackageInfo(packageName, /* flags= */ 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            // Resources not belonging to an installed package can only change via an OTA.
+            version = Build.FINGERPRINT;
+        }
+        synchronized (sPackageVersions) {
+            sPackageVersions.put(packageName, version);
+        }
+        return version;
+    }
+
     /**
      * Returns the Resources instance for the resource represented by this asset.
      */
@@ -103,7 +175,7 @@ public class ResourceAsset extends StreamableAsset {
     /**
      * Returns the resource ID for the resource represented by this asset.
      */
-    int getResId() {
+    public int getResId() {
         return mResId;
     }
 
@@ -112,6 +184,12 @@ public class ResourceAsset extends StreamableAsset {
         return mRes.openRawResource(mResId);
     }
 
+    @Override
+    protected String getMetadataCacheKey() {
+        // APK resources can't change over the lifetime of the process.
+        return getKey().toString();
+    }
+
     /**
      * Glide caching key for resources from any arbitrary package.
      */
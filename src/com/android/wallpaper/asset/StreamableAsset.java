@@ -24,27 +24,33 @@ import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.media.ExifInterface;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.android.wallpaper.module.DecodeScheduler;
+
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Represents Asset types for which bytes can be read directly, allowing for flexible bitmap
  * decoding.
  */
 public abstract class StreamableAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final String TAG = "StreamableAsset";
 
-    private BitmapRegionDecoder mBitmapRegionDecoder;
-    private Point mDimensions;
+    /**
+     * How much of the stream is kept around while probing bounds, so that EXIF tags can be read
+     * from the same stream afterwards. Large enough to cover the APP1 segment of a JPEG.
+     */
+    private static final int PROBE_MARK_LIMIT = 128 * 1024;
+
+    private volatile ImageMetadata mMetadata;
 
     /**
      * Scales and returns a new Rect from the given Rect by the given scaling factor.
@@ -79,7 +85,13 @@ public abstract class StreamableAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        decodeBitmap(targetWidth, targetHeight, /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeBitmap(int targetWidth, int targetHeight,
+            @Nullable CancellationSignal cancellationSignal, BitmapReceiver receiver) {
+        runOnDecodeScheduler(DecodeScheduler.LANE_VISIBLE_TILE, cancellationSignal, () -> {
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
             int exifOrientation = getExifOrientation();
@@ -96,36 +108,64 @@ public abstract class StreamableAsset extends Asset {
             Point rawDimensions = calculateRawDimensions();
             // Raw dimensions may be null if there was an error opening the underlying input stream.
             if (rawDimensions == null) {
-                decodeBitmapCompleted(receiver, null);
+                decodeBitmapCompleted(receiver, null, cancellationSignal);
+                return;
+            }
+            // Bail out before the expensive part if the request was cancelled while probing.
+            if (isCanceled(cancellationSignal)) {
                 return;
             }
             options.inSampleSize = BitmapUtils.calculateInSampleSize(
                     rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
             options.inPreferredConfig = Config.HARDWARE;
 
+            // Decode large EXIF-rotated images straight into a rotated bitmap, so that they don't
+            // need a second full size copy.
+            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+            if (matrixRotation > 0 && BitmapUtils.shouldDecodeRotatedRegion(
+                    rawDimensions.x, rawDimensions.y, options.inSampleSize)) {
+                ImageMetadata metadata = getMetadata();
+                Bitmap rotatedBitmap = metadata == null ? null : decodeRotatedRegion(
+                        new Rect(0, 0, metadata.getWidth(), metadata.getHeight()),
+                        options.inSampleSize, matrixRotation);
+                if (rotatedBitmap != null) {
+                    decodeBitmapCompleted(receiver, rotatedBitmap, cancellationSignal);
+                    return;
+                }
+            }
+
             InputStream inputStream = openInputStream();
             Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
             closeInputStream(
                     inputStream, "Error closing the input stream used to decode the full bitmap");
+            if (isCanceled(cancellationSignal)) {
+                recycle(bitmap);
+                return;
+            }
 
-            // Rotate output bitmap if necessary because of EXIF orientation tag.
-            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-            if (matrixRotation > 0) {
-                Matrix rotateMatrix = new Matrix();
-                rotateMatrix.setRotate(matrixRotation);
-                bitmap = Bitmap.createBitmap(
-                        bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix, false);
+            // Rotate the output bitmap of smaller images, or if the image can't be region
+            // decoded.
+            if (matrixRotation > 0 && bitmap != null) {
+                bitmap = rotate(bitmap, matrixRotation);
             }
-            decodeBitmapCompleted(receiver, bitmap);
+            decodeBitmapCompleted(receiver, bitmap, cancellationSignal);
         });
     }
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        sExecutorService.execute(() -> {
+        decodeRawDimensions(unused, /* cancellationSignal= */ null, receiver);
+    }
+
+    @Override
+    public void decodeRawDimensions(Activity unused,
+            @Nullable CancellationSignal cancellationSignal, DimensionsReceiver receiver) {
+        runOnDecodeScheduler(DecodeScheduler.LANE_FULL_RES_PREVIEW, cancellationSignal, () -> {
             Point result = calculateRawDimensions();
             new Handler(Looper.getMainLooper()).post(() -> {
-                receiver.onDimensionsDecoded(result);
+                if (!isCanceled(cancellationSignal)) {
+                    receiver.onDimensionsDecoded(result);
+                }
             });
         });
     }
@@ -136,6 +176,14 @@ public abstract class StreamableAsset extends Asset {
         runDecodeBitmapRegionTask(rect, targetWidth, targetHeight, shouldAdjustForRtl, receiver);
     }
 
+    @Override
+    public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
+            boolean shouldAdjustForRtl, @Nullable CancellationSignal cancellationSignal,
+            BitmapReceiver receiver) {
+        runDecodeBitmapRegionTask(rect, targetWidth, targetHeight, shouldAdjustForRtl,
+                cancellationSignal, receiver);
+    }
+
     @Override
     public boolean supportsTiling() {
         return true;
@@ -146,7 +194,7 @@ public abstract class StreamableAsset extends Asset {
      * asynchronously back to a {@link StreamReceiver}.
      */
     public void fetchInputStream(final StreamReceiver streamReceiver) {
-        sExecutorService.execute(() -> {
+        runOnDecodeScheduler(DecodeScheduler.LANE_BACKGROUND, () -> {
             InputStream result = openInputStream();
             new Handler(Looper.getMainLooper()).post(() -> {
                 streamReceiver.onInputStreamOpened(result);
@@ -182,7 +230,18 @@ public abstract class StreamableAsset extends Asset {
      */
     public void runDecodeBitmapRegionTask(Rect rect, int targetWidth, int targetHeight,
             boolean isRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        runDecodeBitmapRegionTask(rect, targetWidth, targetHeight, isRtl,
+                /* cancellationSignal= */ null, receiver);
+    }
+
+    /**
+     * Same as {@link #runDecodeBitmapRegionTask(Rect, int, int, boolean, BitmapReceiver)}, but
+     * the task is dropped, or its result discarded, once the given signal is cancelled.
+     */
+    public void runDecodeBitmapRegionTask(Rect rect, int targetWidth, int targetHeight,
+            boolean isRtl, @Nullable CancellationSignal cancellationSignal,
+            BitmapReceiver receiver) {
+        runOnDecodeScheduler(DecodeScheduler.LANE_FULL_RES_PREVIEW, cancellationSignal, () -> {
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
             Rect cropRect = rect;
@@ -210,35 +269,71 @@ public abstract class StreamableAsset extends Asset {
             options.inSampleSize = BitmapUtils.calculateInSampleSize(
                     cropRect.width(), cropRect.height(), newTargetWidth, newTargetHeight);
 
-            if (mBitmapRegionDecoder == null) {
-                mBitmapRegionDecoder = openBitmapRegionDecoder();
+            if (isCanceled(cancellationSignal)) {
+                return;
             }
 
+            Bitmap bitmap = decodeRawRegion(cropRect, options.inSampleSize, exifOrientation);
+            if (isCanceled(cancellationSignal)) {
+                recycle(bitmap);
+                return;
+            }
+            decodeBitmapCompleted(receiver, bitmap, cancellationSignal);
+        });
+    }
+
+    /**
+     * Decodes the given region of the asset at the given sample size, using the shared region
+     * decoder of the asset. Unlike {@link #runDecodeBitmapRegionTask}, the region is in terms of
+     * the image as it is shown, that is after rotating it for its EXIF orientation, and it is
+     * decoded on the calling thread, which must not be the main UI thread.
+     *
+     * @return The decoded region, or null if the asset can't be region decoded.
+     */
+    @Nullable
+    Bitmap decodeRegion(Rect rect, int sampleSize) {
+        int exifOrientation = getExifOrientation();
+        Point dimensions = calculateRawDimensions();
+        if (dimensions == null) {
+            return null;
+        }
+        Rect rawRect = CropRectRotator.rotateCropRectForExifOrientation(
+                dimensions, rect, exifOrientation);
+        return decodeRawRegion(rawRect, sampleSize, exifOrientation);
+    }
+
+    /**
+     * Decodes the given region of the encoded image with the shared region decoder of the asset,
+     * straight into a rotated bitmap if necessary because of its EXIF orientation.
+     *
+     * @return The decoded region, or null if the asset can't be region decoded.
+     */
+    @Nullable
+    private Bitmap decodeRawRegion(Rect rawRect, int sampleSize, int exifOrientation) {
+        BitmapRegionDecoderPool decoderPool = BitmapRegionDecoderPool.getInstance();
+        BitmapRegionDecoder decoder = decoderPool.acquire(this);
+        try {
             // Bitmap region decoder may have failed to open if there was a problem with the
             // underlying InputStream.
-            if (mBitmapRegionDecoder != null) {
-                try {
-                    Bitmap bitmap = mBitmapRegionDecoder.decodeRegion(cropRect, options);
-
-                    // Rotate output bitmap if necessary because of EXIF orientation.
-                    int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                    if (matrixRotation > 0) {
-                        Matrix rotateMatrix = new Matrix();
-                        rotateMatrix.setRotate(matrixRotation);
-                        bitmap = Bitmap.createBitmap(
-                                bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix,
-                                false);
-                    }
-                    decodeBitmapCompleted(receiver, bitmap);
-                    return;
-                } catch (OutOfMemoryError e) {
-                    Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
-                } catch (IllegalArgumentException e) {
-                    Log.e(TAG, "Illegal argument for decoding bitmap region", e);
-                }
+            if (decoder == null) {
+                return null;
             }
-            decodeBitmapCompleted(receiver, null);
-        });
+            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+            if (matrixRotation > 0) {
+                return BitmapUtils.decodeRotatedRegion(
+                        decoder, rawRect, sampleSize, matrixRotation);
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            return decoder.decodeRegion(rawRect, options);
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Illegal argument for decoding bitmap region", e);
+        } finally {
+            decoderPool.release(this);
+        }
+        return null;
     }
 
     /**
@@ -249,38 +344,140 @@ public abstract class StreamableAsset extends Asset {
      */
     @Nullable
     public Point calculateRawDimensions() {
-        if (mDimensions != null) {
-            return mDimensions;
+        ImageMetadata metadata = getMetadata();
+        // Metadata may be null if there was an error opening the input stream.
+        if (metadata == null) {
+            return null;
         }
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        int exifOrientation = getExifOrientation();
+        // Swap height and width if image is rotated 90 or 270 degrees.
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            return new Point(metadata.getHeight(), metadata.getWidth());
+        }
+        return new Point(metadata.getWidth(), metadata.getHeight());
+    }
+
+    /**
+     * Returns the metadata of the asset, probing it if needed. Concurrent callers share a single
+     * probe, whose result is also cached process-wide if the asset provides a
+     * {@link #getMetadataCacheKey() cache key}. This method should only be called off the main UI
+     * thread.
+     *
+     * @return Metadata of the asset, or null if there was an error opening its input stream.
+     */
+    @Nullable
+    ImageMetadata getMetadata() {
+        ImageMetadata metadata = mMetadata;
+        if (metadata != null) {
+            return metadata;
+        }
+
+        synchronized (this) {
+            if (mMetadata == null) {
+                String cacheKey = getMetadataCacheKey();
+                mMetadata = cacheKey != null
+                        ? ImageMetadata.get(cacheKey, this::probeMetadata)
+                        : probeMetadata();
+            }
+            return mMetadata;
+        }
+    }
+
+    /**
+     * Returns the metadata of the asset only if it has already been probed.
+     */
+    @Nullable
+    ImageMetadata peekMetadata() {
+        return mMetadata;
+    }
+
+    /**
+     * Returns a key identifying the current content of the asset, which must change whenever the
+     * content does, under which its metadata can be shared with equal assets. Returns null by
+     * default, meaning that the metadata is only kept by this instance.
+     */
+    @Nullable
+    protected String getMetadataCacheKey() {
+        return null;
+    }
+
+    /**
+     * Returns whether {@link #getMetadata()} should also read the EXIF tags of the asset.
+     */
+    protected boolean shouldReadExif() {
+        return false;
+    }
+
+    /**
+     * Reads the bounds, MIME type and, if needed, the EXIF tags of the asset in one pass over its
+     * input stream.
+     */
+    @Nullable
+    private ImageMetadata probeMetadata() {
         InputStream inputStream = openInputStream();
         // Input stream may be null if there was an error opening it.
         if (inputStream == null) {
             return null;
         }
-        BitmapFactory.decodeStream(inputStream, null, options);
-        closeInputStream(inputStream, "There was an error closing the input stream used to calculate "
-                + "the image's raw dimensions");
 
-        int exifOrientation = getExifOrientation();
-        // Swap height and width if image is rotated 90 or 270 degrees.
-        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
-                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            mDimensions = new Point(options.outHeight, options.outWidth);
-        } else {
-            mDimensions = new Point(options.outWidth, options.outHeight);
+        BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
+        bufferedStream.mark(PROBE_MARK_LIMIT);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(bufferedStream, null, options);
+
+        ExifInterfaceCompat exif = null;
+        if (shouldReadExif()) {
+            exif = readExif(bufferedStream);
         }
+        closeInputStream(bufferedStream, "There was an error closing the input stream used to "
+                + "probe the image's metadata");
 
-        return mDimensions;
+        return new ImageMetadata(options.outWidth, options.outHeight, options.outMimeType, exif);
     }
 
     /**
-     * Returns a BitmapRegionDecoder for the asset.
+     * Reads EXIF tags from the given stream, rewound to where the bounds were probed from. Reopens
+     * the input stream if the bounds decoder read past the mark.
      */
     @Nullable
-    private BitmapRegionDecoder openBitmapRegionDecoder() {
+    private ExifInterfaceCompat readExif(BufferedInputStream probedStream) {
+        InputStream reopenedStream = null;
+        try {
+            try {
+                probedStream.reset();
+            } catch (IOException e) {
+                reopenedStream = openInputStream();
+                if (reopenedStream == null) {
+                    return null;
+                }
+            }
+            return new ExifInterfaceCompat(
+                    reopenedStream != null ? reopenedStream : probedStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read EXIF tags", e);
+            return null;
+        } finally {
+            if (reopenedStream != null) {
+                closeInputStream(reopenedStream, "Unable to close input stream used to read "
+                        + "EXIF tags");
+            }
+        }
+    }
+
+    @Override
+    public void releaseResources() {
+        BitmapRegionDecoderPool.getInstance().evict(this);
+    }
+
+    /**
+     * Returns a new BitmapRegionDecoder for the asset. Region decodes should rather share the
+     * decoder held by {@link BitmapRegionDecoderPool}.
+     */
+    @Nullable
+    BitmapRegionDecoder openBitmapRegionDecoder() {
         InputStream inputStream = null;
         BitmapRegionDecoder brd = null;
 
@@ -301,6 +498,52 @@ public abstract class StreamableAsset extends Asset {
         return brd;
     }
 
+    /**
+     * Decodes the given region of the asset into a bitmap rotated by the given degrees, using the
+     * shared region decoder of the asset.
+     *
+     * @return The rotated region, or null if the asset can't be region decoded.
+     */
+    @Nullable
+    private Bitmap decodeRotatedRegion(Rect region, int sampleSize, int degrees) {
+        BitmapRegionDecoderPool decoderPool = BitmapRegionDecoderPool.getInstance();
+        BitmapRegionDecoder decoder = decoderPool.acquire(this);
+        try {
+            return decoder == null ? null
+                    : BitmapUtils.decodeRotatedRegion(decoder, region, sampleSize, degrees);
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory and unable to decode rotated bitmap", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Illegal argument for decoding rotated bitmap", e);
+        } finally {
+            decoderPool.release(this);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of the given bitmap rotated by the given degrees, and recycles the original.
+     */
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        Matrix rotateMatrix = new Matrix();
+        rotateMatrix.setRotate(degrees);
+        Bitmap rotatedBitmap = Bitmap.createBitmap(
+                bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix, false);
+        if (rotatedBitmap != bitmap) {
+            bitmap.recycle();
+        }
+        return rotatedBitmap;
+    }
+
+    /**
+     * Releases the memory of a bitmap whose decoding request was cancelled.
+     */
+    private static void recycle(@Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
     /**
      * Closes the provided InputStream and if there was an error, logs the provided error message.
      */
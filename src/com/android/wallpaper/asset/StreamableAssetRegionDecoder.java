@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.davemorrissey.labs.subscaleview.ImageSource;
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
+
+import java.io.IOException;
+
+/**
+ * {@link ImageRegionDecoder} which lets SubsamplingScaleImageView tile any
+ * {@link StreamableAsset}, whatever its image is read from: a content URI, a resource or the file
+ * descriptor of the current wallpaper.
+ *
+ * <p>Tiles are decoded with the region decoder the asset shares through
+ * {@link BitmapRegionDecoderPool}, which is held for as long as this decoder is used. Regions are
+ * in terms of the image as it is shown, that is after rotating it for its EXIF orientation, so
+ * that coordinates match those of the asset's raw dimensions. Decoded tiles aren't cached here, as
+ * SubsamplingScaleImageView already keeps those it shows.
+ *
+ * <p>Images tiled by this decoder must be set with {@link #TILE_SOURCE_URI}, as the URI of the
+ * image source is ignored.
+ */
+public final class StreamableAssetRegionDecoder implements ImageRegionDecoder {
+    /** URI to create the {@link ImageSource} of an image tiled by this decoder with. */
+    public static final Uri TILE_SOURCE_URI = Uri.parse("wallpaper-asset:tiles");
+
+    private final StreamableAsset mAsset;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private boolean mIsAcquired;
+    private boolean mIsRecycled;
+
+    private StreamableAssetRegionDecoder(StreamableAsset asset) {
+        mAsset = asset;
+    }
+
+    /**
+     * Returns a factory of decoders tiling the given asset, to set on a
+     * SubsamplingScaleImageView with {@code setRegionDecoderFactory}.
+     */
+    public static DecoderFactory<StreamableAssetRegionDecoder> newFactory(StreamableAsset asset) {
+        return () -> new StreamableAssetRegionDecoder(asset);
+    }
+
+    @NonNull
+    @Override
+    public Point init(Context context, @NonNull Uri unused) throws Exception {
+        Point dimensions = mAsset.calculateRawDimensions();
+        if (dimensions == null) {
+            throw new IOException("Unable to read the dimensions of the asset");
+        }
+
+        // Hold the shared region decoder of the asset so that it stays open between tiles.
+        if (BitmapRegionDecoderPool.getInstance().acquire(mAsset) == null) {
+            BitmapRegionDecoderPool.getInstance().release(mAsset);
+            throw new IOException("Unable to open a region decoder for the asset");
+        }
+
+        synchronized (mLock) {
+            mIsAcquired = true;
+            // SubsamplingScaleImageView may have been recycled while this was initializing.
+            if (mIsRecycled) {
+                releaseLocked();
+            }
+        }
+        return dimensions;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        Bitmap tile = mAsset.decodeRegion(sRect, sampleSize);
+        if (tile == null) {
+            throw new RuntimeException("Unable to decode region " + sRect + " of the asset");
+        }
+        return tile;
+    }
+
+    @Override
+    public boolean isReady() {
+        synchronized (mLock) {
+            return mIsAcquired && !mIsRecycled;
+        }
+    }
+
+    @Override
+    public void recycle() {
+        synchronized (mLock) {
+            mIsRecycled = true;
+            releaseLocked();
+        }
+    }
+
+    private void releaseLocked() {
+        if (mIsAcquired) {
+            mIsAcquired = false;
+            BitmapRegionDecoderPool.getInstance().release(mAsset);
+        }
+    }
+}
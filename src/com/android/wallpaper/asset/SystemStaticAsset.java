@@ -24,6 +24,7 @@ import android.widget.ImageView;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.MultiTransformation;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
 import com.bumptech.glide.load.resource.bitmap.FitCenter;
 import com.bumptech.glide.request.RequestOptions;
@@ -60,7 +61,9 @@ public final class SystemStaticAsset extends ResourceAsset {
                 .asDrawable()
                 .load(this)
                 .apply(RequestOptions.bitmapTransform(multiTransformation)
-                        .placeholder(new ColorDrawable(placeholderColor)))
+                        .placeholder(new ColorDrawable(placeholderColor))
+                        .signature(getVersionKey(activity))
+                        .diskCacheStrategy(DiskCacheStrategy.RESOURCE))
                 .into(imageView);
     }
 
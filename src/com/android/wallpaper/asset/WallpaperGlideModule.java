@@ -1,6 +1,7 @@
 package com.android.wallpaper.asset;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 
 import com.android.wallpaper.asset.CurrentWallpaperAssetVNLoader.CurrentWallpaperAssetVNLoaderFactory;
@@ -49,7 +50,7 @@ public class WallpaperGlideModule implements GlideModule {
 
     @Override
     public void registerComponents(Context context, Glide glide, Registry registry) {
-        registry.append(WallpaperModel.class, Drawable.class, new WallpaperModelLoaderFactory());
+        registry.append(WallpaperModel.class, Bitmap.class, new WallpaperModelLoaderFactory());
         registry.append(ResourceAsset.class, InputStream.class, new ResourceAssetLoaderFactory());
         registry.append(SystemStaticAsset.class, InputStream.class,
                 new SystemStaticAssetLoaderFactory());
@@ -60,12 +60,17 @@ public class WallpaperModel {
             return null;
         }
 
-        return mWallpaperManager.getBuiltInDrawable(
+        Drawable drawable = mWallpaperManager.getBuiltInDrawable(
                 width,
                 height,
                 SCALE_TO_FIT,
                 HORIZONTAL_CENTER_ALIGNED,
                 VERTICAL_CENTER_ALIGNED);
+
+        // The scaled drawable is all that's needed, so let WallpaperManager drop its reference to
+        // the full size built-in wallpaper bitmap.
+        mWallpaperManager.forgetLoadedWallpaper();
+        return drawable;
     }
 
     /**
@@ -76,9 +81,9 @@ public class WallpaperModel {
             Log.e(TAG, "Invalid wallpaper data source: " + mWallpaperSource);
         }
 
-        // The built-in wallpaper image can only change via an OTA, so it cannot change over the
-        // lifetime of this object so just use the object's signature as a cache key.
-        return new ObjectKey(this);
+        // The built-in wallpaper image can only change via an OTA, so key it by the build
+        // fingerprint, which lets thumbnails persisted in Glide's disk cache survive restarts.
+        return new ObjectKey("BuiltInWallpaper{fingerprint=" + Build.FINGERPRINT + '}');
     }
 
     /**
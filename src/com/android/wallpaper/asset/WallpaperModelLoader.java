@@ -15,6 +15,8 @@
  */
 package com.android.wallpaper.asset;
 
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
 import com.bumptech.glide.Priority;
@@ -28,10 +30,11 @@ import com.bumptech.glide.load.model.MultiModelLoaderFactory;
 import androidx.annotation.Nullable;
 
 /**
- * Custom Glide {@link ModelLoader} which can load {@link Drawable} objects from
- * {@link WallpaperModel} objects.
+ * Custom Glide {@link ModelLoader} which can load {@link Bitmap} objects from
+ * {@link WallpaperModel} objects. Loading bitmaps rather than drawables allows Glide to persist the
+ * transformed thumbnails in its disk cache.
  */
-public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawable> {
+public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Bitmap> {
 
     @Override
     public boolean handles(WallpaperModel wallpaperModel) {
@@ -40,7 +43,7 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
 
     @Nullable
     @Override
-    public LoadData<Drawable> buildLoadData(WallpaperModel wallpaperModel, int width, int height,
+    public LoadData<Bitmap> buildLoadData(WallpaperModel wallpaperModel, int width, int height,
                                             Options options) {
         return new LoadData<>(wallpaperModel.getKey(),
                 new WallpaperFetcher(wallpaperModel, width, height));
@@ -50,12 +53,12 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
      * Factory that constructs {@link WallpaperModelLoader} instances.
      */
     public static class WallpaperModelLoaderFactory
-            implements ModelLoaderFactory<WallpaperModel, Drawable> {
+            implements ModelLoaderFactory<WallpaperModel, Bitmap> {
         public WallpaperModelLoaderFactory() {
         }
 
         @Override
-        public ModelLoader<WallpaperModel, Drawable> build(MultiModelLoaderFactory multiFactory) {
+        public ModelLoader<WallpaperModel, Bitmap> build(MultiModelLoaderFactory multiFactory) {
             return new WallpaperModelLoader();
         }
 
@@ -68,7 +71,7 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
     /**
      * Fetcher class for fetching wallpaper image data from a {@link WallpaperModel}.
      */
-    private static class WallpaperFetcher implements DataFetcher<Drawable> {
+    private static class WallpaperFetcher implements DataFetcher<Bitmap> {
 
         private WallpaperModel mWallpaperModel;
         private int mWidth;
@@ -81,8 +84,10 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
         }
 
         @Override
-        public void loadData(Priority priority, DataCallback<? super Drawable> callback) {
-            callback.onDataReady(mWallpaperModel.getDrawable(mWidth, mHeight));
+        public void loadData(Priority priority, DataCallback<? super Bitmap> callback) {
+            Drawable drawable = mWallpaperModel.getDrawable(mWidth, mHeight);
+            callback.onDataReady(drawable instanceof BitmapDrawable
+                    ? ((BitmapDrawable) drawable).getBitmap() : null);
         }
 
         @Override
@@ -101,8 +106,8 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
         }
 
         @Override
-        public Class<Drawable> getDataClass() {
-            return Drawable.class;
+        public Class<Bitmap> getDataClass() {
+            return Bitmap.class;
         }
     }
 }
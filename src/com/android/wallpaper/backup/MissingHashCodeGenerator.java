@@ -56,10 +56,12 @@ public class MissingHashCodeGenerator extends BroadcastReceiver {
 
         Injector injector = InjectorProvider.getInjector();
         WallpaperPreferences wallpaperPreferences = injector.getPreferences(context);
-        // Delegate the longer-running work of generating missing hash codes to a JobScheduler job if
-        // there's no hash codes saved.
-        if (wallpaperPreferences.getHomeWallpaperHashCode() != 0
-                && wallpaperPreferences.getLockWallpaperHashCode() != 0) {
+        // Delegate the longer-running work of generating missing fingerprints to a JobScheduler job
+        // if there's no fingerprints or legacy hash codes saved.
+        if ((wallpaperPreferences.getHomeWallpaperFingerprint() != 0
+                || wallpaperPreferences.getHomeWallpaperHashCode() != 0)
+                && (wallpaperPreferences.getLockWallpaperFingerprint() != 0
+                || wallpaperPreferences.getLockWallpaperHashCode() != 0)) {
             return;
         }
 
@@ -23,31 +23,21 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.os.ParcelFileDescriptor;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
-import com.android.wallpaper.asset.BitmapUtils;
 import com.android.wallpaper.compat.WallpaperManagerCompat;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.JobSchedulerJobIds;
 import com.android.wallpaper.module.WallpaperPreferences;
 import com.android.wallpaper.util.DiskBasedLogger;
-
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import com.android.wallpaper.util.WallpaperFingerprints;
 
 /**
- * {@link android.app.job.JobScheduler} job for generating missing hash codes for static wallpapers
- * on N+ devices.
+ * {@link android.app.job.JobScheduler} job for generating missing fingerprints for static
+ * wallpapers on N+ devices.
  */
 @SuppressLint("ServiceCast")
 public class MissingHashCodeGeneratorJobService extends JobService {
@@ -76,7 +66,7 @@ public class MissingHashCodeGeneratorJobService extends JobService {
         final WallpaperManager wallpaperManager = (WallpaperManager) context.getSystemService(
                 Context.WALLPAPER_SERVICE);
 
-        // Generate missing hash codes on a plain worker thread because we need to do some
+        // Generate missing fingerprints on a plain worker thread because we need to do some
         // long-running disk I/O and can call #jobFinished from a background thread.
         mWorkerThread = new Thread(new Runnable() {
             @Override
@@ -88,79 +78,54 @@ public class MissingHashCodeGeneratorJobService extends JobService {
 
                 boolean isLiveWallpaperSet = wallpaperManager.getWallpaperInfo() != null;
 
-                // Generate and set a home wallpaper hash code if there's no live wallpaper set
-                // and no hash code stored already for the home wallpaper.
-                if (!isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperHashCode() == 0) {
-                    wallpaperManager.forgetLoadedWallpaper();
-
-                    Drawable wallpaperDrawable = wallpaperManagerCompat.getDrawable();
-                    // No work to do if the drawable returned is null due to an underlying
+                // Fingerprint the home wallpaper file if there's no live wallpaper set and no
+                // fingerprint or hash code stored already for the home wallpaper.
+                if (!isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperFingerprint() == 0
+                        && wallpaperPreferences.getHomeWallpaperHashCode() == 0) {
+                    long homeFingerprint = WallpaperFingerprints.get(wallpaperManagerCompat,
+                            WallpaperManagerCompat.FLAG_SYSTEM);
+                    // No work to do if the wallpaper file can't be read due to an underlying
                     // platform issue -- being extra defensive with this check due to instability
                     // and variability of underlying platform.
-                    if (wallpaperDrawable == null) {
+                    if (homeFingerprint == 0) {
                         DiskBasedLogger.e(
                                 TAG,
-                                "WallpaperManager#getDrawable returned null and there's no live "
-                                        + "wallpaper set",
+                                "WallpaperManager#getWallpaperFile returned no file and there's no "
+                                        + "live wallpaper set",
                                 context
                         );
+                        mWorkerThread = null;
                         jobFinished(jobParameters, false /* needsReschedule */);
                         return;
                     }
 
-                    Bitmap bitmap = ((BitmapDrawable) wallpaperDrawable).getBitmap();
-                    long homeBitmapHash = BitmapUtils.generateHashCode(bitmap);
-
-                    wallpaperPreferences.setHomeWallpaperHashCode(homeBitmapHash);
+                    wallpaperPreferences.setHomeWallpaperFingerprint(homeFingerprint);
                 }
 
-                // Generate and set a lock wallpaper hash code if there's none saved.
-                if (wallpaperPreferences.getLockWallpaperHashCode() == 0) {
-                    ParcelFileDescriptor parcelFd =
-                            wallpaperManagerCompat.getWallpaperFile(
-                                    WallpaperManagerCompat.FLAG_LOCK);
-                    boolean isLockWallpaperSet = parcelFd != null;
-
-                    // Copy the home wallpaper's hash code to lock if there's no distinct lock
-                    // wallpaper set.
-                    if (!isLockWallpaperSet) {
-                        wallpaperPreferences.setLockWallpaperHashCode(
-                                wallpaperPreferences.getHomeWallpaperHashCode());
-                        mWorkerThread = null;
-                        jobFinished(jobParameters, false /* needsReschedule */);
-                        return;
-                    }
-
-                    // Otherwise, generate and set the distinct lock wallpaper image's hash code.
-                    Bitmap lockBitmap = null;
-                    InputStream fileStream = null;
-                    try {
-                        fileStream = new FileInputStream(parcelFd.getFileDescriptor());
-                        lockBitmap = BitmapFactory.decodeStream(fileStream);
-                        parcelFd.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, "IO exception when closing the file descriptor.", e);
-                    } finally {
-                        if (fileStream != null) {
-                            try {
-                                fileStream.close();
-                            } catch (IOException e) {
-                                Log.e(TAG,
-                                        "IO exception when closing input stream for lock screen "
-                                                + "wallpaper.",
-                                        e);
-                            }
+                // Fingerprint the lock wallpaper file if there's no fingerprint or hash code saved.
+                if (wallpaperPreferences.getLockWallpaperFingerprint() == 0
+                        && wallpaperPreferences.getLockWallpaperHashCode() == 0) {
+                    long lockFingerprint = WallpaperFingerprints.get(wallpaperManagerCompat,
+                            WallpaperManagerCompat.FLAG_LOCK);
+
+                    // Copy the home wallpaper's fingerprint or hash code to lock if there's no
+                    // distinct lock wallpaper set.
+                    if (lockFingerprint == 0) {
+                        long homeFingerprint = wallpaperPreferences.getHomeWallpaperFingerprint();
+                        if (homeFingerprint != 0) {
+                            wallpaperPreferences.setLockWallpaperFingerprint(homeFingerprint);
+                        } else {
+                            wallpaperPreferences.setLockWallpaperHashCode(
+                                    wallpaperPreferences.getHomeWallpaperHashCode());
                         }
+                    } else {
+                        // Otherwise, set the distinct lock wallpaper image's fingerprint.
+                        wallpaperPreferences.setLockWallpaperFingerprint(lockFingerprint);
                     }
-
-                    if (lockBitmap != null) {
-                        wallpaperPreferences.setLockWallpaperHashCode(
-                                BitmapUtils.generateHashCode(lockBitmap));
-                    }
-                    mWorkerThread = null;
-
-                    jobFinished(jobParameters, false /* needsReschedule */);
                 }
+                mWorkerThread = null;
+
+                jobFinished(jobParameters, false /* needsReschedule */);
             }
         });
 
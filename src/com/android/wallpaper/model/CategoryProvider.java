@@ -19,6 +19,8 @@ import android.content.Context;
 
 import androidx.annotation.Nullable;
 
+import com.android.wallpaper.module.PackageStatusNotifier.PackageStatus;
+
 /**
  * Fetches and provides wallpaper categories to any registered {@link CategoryReceiver}s.
  */
@@ -34,6 +36,30 @@ public interface CategoryProvider {
      */
     void fetchCategories(CategoryReceiver receiver, boolean forceRefresh);
 
+    /**
+     * Applies an install, update or removal of the given package to the fetched live wallpapers
+     * category, re-resolving only the live wallpapers of that package. The category is reported to
+     * the given receiver as received if it was added or changed, or as removed if it no longer
+     * lists any live wallpaper, then {@link CategoryReceiver#doneFetchingCategories} is called.
+     *
+     * <p>Does nothing but call {@link CategoryReceiver#doneFetchingCategories} if the categories
+     * aren't fetched yet, as the next fetch resolves all packages anyway.
+     */
+    void updateLiveWallpaperCategory(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver);
+
+    /**
+     * Applies an install, update or removal of the given package to the fetched third-party app
+     * categories, re-resolving only the apps of that package. Each category of the package is
+     * reported to the given receiver as received or removed, then {@link
+     * CategoryReceiver#doneFetchingCategories} is called.
+     *
+     * <p>Does nothing but call {@link CategoryReceiver#doneFetchingCategories} if the categories
+     * aren't fetched yet, as the next fetch resolves all packages anyway.
+     */
+    void updateThirdPartyAppCategories(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver);
+
     int getSize();
 
     /**
@@ -27,6 +27,13 @@ public interface CategoryReceiver {
      */
     public void onCategoryReceived(Category category);
 
+    /**
+     * Called when a category which was received earlier in the same fetch turned out to be gone,
+     * for example because it came from a stale snapshot of the categories.
+     */
+    default void onCategoryRemoved(Category category) {
+    }
+
     /**
      * Called once all categories have been fetched.
      */
@@ -43,13 +43,14 @@ import com.android.wallpaper.util.ActivityUtils;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.text.Collator;
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -130,7 +131,7 @@ public class LiveWallpaperInfo extends WallpaperInfo {
         }
         android.app.WallpaperInfo wallpaperInfo;
         try {
-            wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfos.get(0));
+            wallpaperInfo = WallpaperComponentCache.get(context, resolveInfos.get(0));
         } catch (XmlPullParserException | IOException e) {
             Log.w(TAG, "Skipping wallpaper " + resolveInfos.get(0).serviceInfo, e);
             return null;
@@ -178,7 +179,61 @@ public class LiveWallpaperInfo extends WallpaperInfo {
      */
     public static List<WallpaperInfo> getAll(Context context,
                                              @Nullable Set<String> excludedPackageNames) {
-        List<ResolveInfo> resolveInfos = getAllOnDevice(context);
+        return fromResolveInfos(context, getAllOnDevice(context), excludedPackageNames);
+    }
+
+    /**
+     * Returns the live wallpapers found within the APK with the given package name, in the order
+     * {@link #getAll} lists them in. Only queries the given package, so this is much cheaper than
+     * {@link #getAll} when a single package was installed, updated or removed.
+     */
+    public static List<WallpaperInfo> getAllFromPackage(Context context, String packageName) {
+        if (packageName.equals(context.getPackageName())) {
+            // The "Rotating Image Wallpaper" live wallpaper is never listed.
+            return new ArrayList<>();
+        }
+        Intent intent = new Intent(WallpaperService.SERVICE_INTERFACE).setPackage(packageName);
+        List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentServices(
+                intent, PackageManager.GET_META_DATA);
+        List<WallpaperInfo> wallpaperInfos =
+                fromResolveInfos(context, resolveInfos, /* excludedPackageNames= */ null);
+        if (!resolveInfos.isEmpty()
+                && !isSystemApp(resolveInfos.get(0).serviceInfo.applicationInfo)) {
+            wallpaperInfos.sort(Comparator.comparing(wallpaperInfo ->
+                    WallpaperComponentCache.getLabelSortKey(context,
+                            wallpaperInfo.getWallpaperComponent())));
+        }
+        return wallpaperInfos;
+    }
+
+    /**
+     * Returns the index {@link #getAll} would list the given live wallpaper at in the given list
+     * it returned: after the wallpapers of system apps if it is one of them, or sorted by label
+     * among the other wallpapers otherwise.
+     */
+    public static int getSortedIndex(Context context, List<WallpaperInfo> wallpaperInfos,
+            WallpaperInfo wallpaperInfo) {
+        android.app.WallpaperInfo component = wallpaperInfo.getWallpaperComponent();
+        boolean isSystem = isSystemApp(component.getServiceInfo().applicationInfo);
+        CollationKey labelSortKey = isSystem
+                ? null : WallpaperComponentCache.getLabelSortKey(context, component);
+        for (int i = 0; i < wallpaperInfos.size(); i++) {
+            android.app.WallpaperInfo otherComponent =
+                    wallpaperInfos.get(i).getWallpaperComponent();
+            if (otherComponent == null
+                    || isSystemApp(otherComponent.getServiceInfo().applicationInfo)) {
+                continue;
+            }
+            if (isSystem || WallpaperComponentCache.getLabelSortKey(context, otherComponent)
+                    .compareTo(labelSortKey) > 0) {
+                return i;
+            }
+        }
+        return wallpaperInfos.size();
+    }
+
+    private static List<WallpaperInfo> fromResolveInfos(Context context,
+            List<ResolveInfo> resolveInfos, @Nullable Set<String> excludedPackageNames) {
         List<WallpaperInfo> wallpaperInfos = new ArrayList<>();
         LiveWallpaperInfoFactory factory =
                 InjectorProvider.getInjector().getLiveWallpaperInfoFactory(context);
@@ -186,7 +241,7 @@ public class LiveWallpaperInfo extends WallpaperInfo {
             ResolveInfo resolveInfo = resolveInfos.get(i);
             android.app.WallpaperInfo wallpaperInfo;
             try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
+                wallpaperInfo = WallpaperComponentCache.get(context, resolveInfo);
             } catch (XmlPullParserException | IOException e) {
                 Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
                 continue;
@@ -229,7 +284,7 @@ public class LiveWallpaperInfo extends WallpaperInfo {
 
             android.app.WallpaperInfo wallpaperInfo;
             try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
+                wallpaperInfo = WallpaperComponentCache.get(context, resolveInfo);
             } catch (XmlPullParserException e) {
                 Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
                 continue;
@@ -308,14 +363,19 @@ public class LiveWallpaperInfo extends WallpaperInfo {
         }
 
         // Sort non-system wallpapers alphabetically and append them to system ones
-        Collections.sort(resolveInfos, new Comparator<ResolveInfo>() {
-            final Collator mCollator = Collator.getInstance();
-
-            @Override
-            public int compare(ResolveInfo info1, ResolveInfo info2) {
-                return mCollator.compare(info1.loadLabel(pm), info2.loadLabel(pm));
+        Map<ResolveInfo, CollationKey> labelSortKeys = new IdentityHashMap<>(resolveInfos.size());
+        iter = resolveInfos.iterator();
+        while (iter.hasNext()) {
+            ResolveInfo resolveInfo = iter.next();
+            try {
+                labelSortKeys.put(resolveInfo, WallpaperComponentCache.getLabelSortKey(context,
+                        WallpaperComponentCache.get(context, resolveInfo)));
+            } catch (XmlPullParserException | IOException e) {
+                Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
+                iter.remove();
             }
-        });
+        }
+        resolveInfos.sort(Comparator.comparing(labelSortKeys::get));
         wallpaperInfos.addAll(resolveInfos);
 
         return wallpaperInfos;
@@ -23,6 +23,8 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 
+import androidx.annotation.Nullable;
+
 import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.util.ActivityUtils;
@@ -50,9 +52,25 @@ public class ThirdPartyAppCategory extends Category {
      */
     public static List<ThirdPartyAppCategory> getAll(Context context, int priority,
                                                      List<String> excludedPackageNames) {
+        return query(context, priority, excludedPackageNames, /* packageName= */ null);
+    }
+
+    /**
+     * Returns the third-party wallpaper apps found within the APK with the given package name.
+     * Only queries the given package, so this is much cheaper than {@link #getAll} when a single
+     * package was installed, updated or removed.
+     */
+    public static List<ThirdPartyAppCategory> getFromPackage(Context context, String packageName,
+            int priority, List<String> excludedPackageNames) {
+        return query(context, priority, excludedPackageNames, packageName);
+    }
+
+    private static List<ThirdPartyAppCategory> query(Context context, int priority,
+            List<String> excludedPackageNames, @Nullable String packageName) {
         final PackageManager pm = context.getPackageManager();
 
         final Intent pickWallpaperIntent = new Intent(Intent.ACTION_SET_WALLPAPER);
+        pickWallpaperIntent.setPackage(packageName);
         final List<ResolveInfo> apps = pm.queryIntentActivities(pickWallpaperIntent, 0);
 
         List<ThirdPartyAppCategory> thirdPartyApps = new ArrayList<ThirdPartyAppCategory>();
@@ -60,6 +78,7 @@ public class ThirdPartyAppCategory extends Category {
         // Get list of image picker intents.
         Intent pickImageIntent = new Intent(Intent.ACTION_GET_CONTENT);
         pickImageIntent.setType("image/*");
+        pickImageIntent.setPackage(packageName);
         final List<ResolveInfo> imagePickerActivities =
                 context.getPackageManager().queryIntentActivities(pickImageIntent, 0);
 
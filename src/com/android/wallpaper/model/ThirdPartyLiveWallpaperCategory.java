@@ -22,6 +22,7 @@ import android.os.Looper;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -43,6 +44,14 @@ public class ThirdPartyLiveWallpaperCategory extends WallpaperCategory {
         mExcludedPackages = excludedLiveWallpaperPackageNames;
     }
 
+    /**
+     * Returns the packages whose live wallpapers are left out of this category.
+     */
+    @Nullable
+    public Set<String> getExcludedPackages() {
+        return mExcludedPackages;
+    }
+
     @Override
     public void fetchWallpapers(Context context, WallpaperReceiver receiver, boolean forceReload) {
         if (forceReload) {
@@ -64,6 +73,58 @@ public class ThirdPartyLiveWallpaperCategory extends WallpaperCategory {
         }
     }
 
+    /**
+     * Replaces the live wallpapers of the given package with the given ones, keeping the position
+     * the package had in the list, or inserting them where a full fetch would list them if it
+     * wasn't listed yet. Does nothing if the package is excluded from this category.
+     *
+     * @param wallpapers Live wallpapers of the package, as returned by
+     *                   {@link LiveWallpaperInfo#getAllFromPackage}.
+     * @return whether any wallpaper was replaced, added or removed.
+     */
+    public boolean replacePackageWallpapers(Context context, String packageName,
+            List<WallpaperInfo> wallpapers) {
+        if (mExcludedPackages != null && mExcludedPackages.contains(packageName)) {
+            return false;
+        }
+        synchronized (mWallpapersLock) {
+            List<WallpaperInfo> categoryWallpapers = getMutableWallpapers();
+            int insertIndex = -1;
+            boolean removed = false;
+            Iterator<WallpaperInfo> iterator = categoryWallpapers.iterator();
+            for (int i = 0; iterator.hasNext(); i++) {
+                android.app.WallpaperInfo wallpaperComponent =
+                        iterator.next().getWallpaperComponent();
+                if (wallpaperComponent != null
+                        && wallpaperComponent.getPackageName().equals(packageName)) {
+                    if (insertIndex < 0) {
+                        insertIndex = i;
+                    }
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+            if (insertIndex >= 0) {
+                categoryWallpapers.addAll(insertIndex, wallpapers);
+            } else {
+                for (WallpaperInfo wallpaper : wallpapers) {
+                    categoryWallpapers.add(LiveWallpaperInfo.getSortedIndex(context,
+                            categoryWallpapers, wallpaper), wallpaper);
+                }
+            }
+            return removed || !wallpapers.isEmpty();
+        }
+    }
+
+    /**
+     * Returns whether this category no longer lists any live wallpaper.
+     */
+    public boolean isEmpty() {
+        synchronized (mWallpapersLock) {
+            return getMutableWallpapers().isEmpty();
+        }
+    }
+
     @Override
     public boolean supportsThirdParty() {
         return true;
@@ -40,6 +40,8 @@ public class WallpaperCategory extends Category {
 
     protected final Object mWallpapersLock;
     private final List<WallpaperInfo> mWallpapers;
+    @Nullable
+    private final Asset mCustomThumbAsset;
     private Asset mThumbAsset;
     private int mFeaturedThumbnailIndex;
 
@@ -53,6 +55,7 @@ public class WallpaperCategory extends Category {
         super(title, collectionId, priority);
         mWallpapers = wallpapers;
         mWallpapersLock = new Object();
+        mCustomThumbAsset = null;
         mFeaturedThumbnailIndex = featuredThumbnailIndex;
     }
 
@@ -61,6 +64,7 @@ public class WallpaperCategory extends Category {
         super(title, collectionId, priority);
         mWallpapers = wallpapers;
         mWallpapersLock = new Object();
+        mCustomThumbAsset = thumbAsset;
         mThumbAsset = thumbAsset;
     }
 
@@ -109,6 +113,23 @@ public class WallpaperCategory extends Category {
         return Collections.unmodifiableList(mWallpapers);
     }
 
+    /**
+     * Returns the index of the wallpaper whose thumbnail represents this category, unless it was
+     * created with a {@link #getCustomThumbnail() custom thumbnail}.
+     */
+    public int getFeaturedThumbnailIndex() {
+        return mFeaturedThumbnailIndex;
+    }
+
+    /**
+     * Returns the thumbnail this category was created with, or null if its thumbnail is the one of
+     * its featured wallpaper.
+     */
+    @Nullable
+    public Asset getCustomThumbnail() {
+        return mCustomThumbAsset;
+    }
+
     @Override
     public Asset getThumbnail(Context context) {
         synchronized (mWallpapersLock) {
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Process-wide cache of the {@link android.app.WallpaperInfo}s parsed from the metadata XML of
+ * live wallpaper services, along with the collation keys of their labels, so that discovering and
+ * sorting the same services again does no parsing nor label loading.
+ *
+ * <p>Entries are keyed by component and invalidated once the package of the service is updated,
+ * which always installs it in a new source directory. Label sort keys are also dropped when the
+ * locale changes, as keys of different collators can't be compared.
+ */
+final class WallpaperComponentCache {
+    private static final int MAX_CACHED_ENTRIES = 64;
+
+    private static final LruCache<ComponentName, Entry> sCache =
+            new LruCache<>(MAX_CACHED_ENTRIES);
+
+    private WallpaperComponentCache() {
+    }
+
+    /**
+     * Returns the parsed metadata of the given live wallpaper service, parsing it only if it isn't
+     * cached yet for the installed version of its package.
+     */
+    static android.app.WallpaperInfo get(Context context, ResolveInfo resolveInfo)
+            throws XmlPullParserException, IOException {
+        ServiceInfo serviceInfo = resolveInfo.serviceInfo;
+        ComponentName component = new ComponentName(serviceInfo.packageName, serviceInfo.name);
+        String sourceDir = serviceInfo.applicationInfo.sourceDir;
+        Entry entry = getEntry(component, sourceDir);
+        if (entry != null) {
+            return entry.mWallpaperInfo;
+        }
+
+        // Parsing the same component concurrently is harmless, the last result wins.
+        android.app.WallpaperInfo wallpaperInfo =
+                new android.app.WallpaperInfo(context, resolveInfo);
+        sCache.put(component, new Entry(sourceDir, wallpaperInfo));
+        return wallpaperInfo;
+    }
+
+    /**
+     * Returns the collation key of the label of the given live wallpaper service in the current
+     * locale, loading the label only if it isn't cached yet for the installed version of its
+     * package and that locale.
+     */
+    static CollationKey getLabelSortKey(Context context, android.app.WallpaperInfo wallpaperInfo) {
+        ServiceInfo serviceInfo = wallpaperInfo.getServiceInfo();
+        ComponentName component = wallpaperInfo.getComponent();
+        String sourceDir = serviceInfo.applicationInfo.sourceDir;
+        Entry entry = getEntry(component, sourceDir);
+        if (entry == null) {
+            entry = new Entry(sourceDir, wallpaperInfo);
+            sCache.put(component, entry);
+        }
+
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        synchronized (entry) {
+            if (!locale.equals(entry.mLabelLocale)) {
+                entry.mLabelSortKey = Collator.getInstance(locale).getCollationKey(
+                        String.valueOf(wallpaperInfo.loadLabel(context.getPackageManager())));
+                entry.mLabelLocale = locale;
+            }
+            return entry.mLabelSortKey;
+        }
+    }
+
+    /**
+     * Returns the cached entry of the given component if it is still valid for the given source
+     * directory of its package, or null otherwise.
+     */
+    @Nullable
+    private static Entry getEntry(ComponentName component, @Nullable String sourceDir) {
+        Entry entry = sCache.get(component);
+        return entry != null && TextUtils.equals(entry.mSourceDir, sourceDir) ? entry : null;
+    }
+
+    private static final class Entry {
+        @Nullable
+        private final String mSourceDir;
+        private final android.app.WallpaperInfo mWallpaperInfo;
+        // Label sort key and the locale it was computed in, guarded by the entry itself.
+        @Nullable
+        private Locale mLabelLocale;
+        private CollationKey mLabelSortKey;
+
+        Entry(@Nullable String sourceDir, android.app.WallpaperInfo wallpaperInfo) {
+            mSourceDir = sourceDir;
+            mWallpaperInfo = wallpaperInfo;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package com.android.wallpaper.model;
 import android.app.Activity;
 import android.app.WallpaperColors;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -31,13 +30,13 @@ import androidx.annotation.StringRes;
 
 import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.module.WallpaperColorExtractor;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
@@ -45,7 +44,6 @@ import java.util.concurrent.Future;
  */
 public abstract class WallpaperInfo implements Parcelable {
 
-    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
     private ColorInfo mColorInfo = new ColorInfo();
 
     private PriorityQueue<String> mEffectNames = new PriorityQueue<>();
@@ -227,29 +225,33 @@ public abstract class WallpaperInfo implements Parcelable {
      * thumbnail is available.
      */
     public Future<ColorInfo> computeColorInfo(Context context) {
-        if (mColorInfo.getWallpaperColors() != null
-                && mColorInfo.getPlaceholderColor() != Color.TRANSPARENT) {
-            return CompletableFuture.completedFuture(mColorInfo);
-        }
-        final Context appContext = context.getApplicationContext();
-        return sExecutor.submit(() -> {
-            synchronized (WallpaperInfo.this) {
-                if (mColorInfo.getWallpaperColors() != null
-                        && mColorInfo.getPlaceholderColor() != Color.TRANSPARENT) {
-                    return mColorInfo;
-                }
-
-                Asset thumbAsset = getThumbAsset(appContext);
-                Bitmap lowResBitmap = thumbAsset.getLowResBitmap(appContext);
-                if (lowResBitmap == null) {
-                    return new ColorInfo(
-                            new WallpaperColors(Color.valueOf(Color.TRANSPARENT), null, null),
-                            Color.TRANSPARENT);
-                }
-                mColorInfo = new ColorInfo(WallpaperColors.fromBitmap(lowResBitmap));
-                return mColorInfo;
+        return computeColorInfo(context, WallpaperColorExtractor.PRIORITY_IMMEDIATE);
+    }
+
+    /**
+     * Same as {@link #computeColorInfo(Context)}, with the given priority among the other
+     * wallpapers whose colors are being computed. The Future of a
+     * {@link WallpaperColorExtractor#PRIORITY_TILE tile} may be cancelled if it falls too far
+     * behind.
+     */
+    public Future<ColorInfo> computeColorInfo(Context context,
+            @WallpaperColorExtractor.Priority int priority) {
+        synchronized (this) {
+            if (mColorInfo.getWallpaperColors() != null
+                    && mColorInfo.getPlaceholderColor() != Color.TRANSPARENT) {
+                return CompletableFuture.completedFuture(mColorInfo);
             }
-        });
+        }
+        return InjectorProvider.getInjector().getWallpaperColorExtractor(context)
+                .extract(this, priority)
+                .thenApply(colorInfo -> {
+                    if (colorInfo.getPlaceholderColor() != Color.TRANSPARENT) {
+                        synchronized (WallpaperInfo.this) {
+                            mColorInfo = colorInfo;
+                        }
+                    }
+                    return colorInfo;
+                });
     }
 
     /**
@@ -29,11 +29,13 @@ import com.android.wallpaper.util.DisplayUtils;
  */
 public abstract class BaseWallpaperInjector implements Injector {
     private BitmapCropper mBitmapCropper;
+    private DecodeScheduler mDecodeScheduler;
     private PartnerProvider mPartnerProvider;
     private WallpaperPersister mWallpaperPersister;
     private WallpaperPreferences mPrefs;
     private WallpaperRefresher mWallpaperRefresher;
     private Requester mRequester;
+    private WallpaperColorExtractor mWallpaperColorExtractor;
     private WallpaperManagerCompat mWallpaperManagerCompat;
     private WallpaperStatusChecker mWallpaperStatusChecker;
     private CurrentWallpaperInfoFactory mCurrentWallpaperFactory;
@@ -55,6 +57,14 @@ public abstract class BaseWallpaperInjector implements Injector {
         return mBitmapCropper;
     }
 
+    @Override
+    public synchronized DecodeScheduler getDecodeScheduler() {
+        if (mDecodeScheduler == null) {
+            mDecodeScheduler = new DefaultDecodeScheduler();
+        }
+        return mDecodeScheduler;
+    }
+
     @Override
     public synchronized PartnerProvider getPartnerProvider(Context context) {
         if (mPartnerProvider == null) {
@@ -95,6 +105,15 @@ public abstract class BaseWallpaperInjector implements Injector {
         return mRequester;
     }
 
+    @Override
+    public synchronized WallpaperColorExtractor getWallpaperColorExtractor(Context context) {
+        if (mWallpaperColorExtractor == null) {
+            mWallpaperColorExtractor = new DefaultWallpaperColorExtractor(
+                    context.getApplicationContext(), getDecodeScheduler());
+        }
+        return mWallpaperColorExtractor;
+    }
+
     @Override
     public synchronized WallpaperManagerCompat getWallpaperManagerCompat(Context context) {
         if (mWallpaperManagerCompat == null) {
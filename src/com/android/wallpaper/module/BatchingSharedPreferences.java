@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link SharedPreferences} which can batch the writes made on a thread, so that they are all
+ * written together by a single editor instead of each scheduling its own write of the file.
+ *
+ * <p>Between {@link #beginBatch} and {@link #endBatch}, every {@link #edit} call on the batching
+ * thread returns the same editor, whose {@link Editor#apply} only marks the batch for writing.
+ * Reads on the batching thread see the pending writes of the batch, while other threads see none
+ * of them until the batch ends. {@link Editor#commit} still writes synchronously, so that it can
+ * return whether the write succeeded: it writes the pending writes of the batch up to that point,
+ * and the batch carries on with those after it.
+ */
+class BatchingSharedPreferences implements SharedPreferences {
+    // Pending value of removed keys, as well as of keys set to null.
+    private static final Object REMOVED = new Object();
+
+    private final SharedPreferences mPrefs;
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    BatchingSharedPreferences(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Starts batching the writes of the calling thread. Batches may be nested, in which case the
+     * writes are made once the outermost batch ends.
+     */
+    void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch(mPrefs);
+            mBatch.set(batch);
+        }
+        batch.mDepth++;
+    }
+
+    /**
+     * Ends the batch started by the last {@link #beginBatch} call of the calling thread.
+     *
+     * @param success Whether the writes of the batch were all made. The writes of a batch any
+     *                part of which failed are discarded rather than written half-way, except for
+     *                those already written by {@link Editor#commit}.
+     */
+    void endBatch(boolean success) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch to end");
+        }
+        batch.mFailed |= !success;
+        if (--batch.mDepth > 0) {
+            return;
+        }
+        mBatch.remove();
+        if (batch.mFailed || !batch.mModified) {
+            return;
+        }
+        batch.mEditor.apply();
+    }
+
+    /**
+     * Returns the pending value of the given key in the batch of the calling thread, {@link
+     * #REMOVED} if the batch removes it, or null if there's no batch or it doesn't write the key.
+     */
+    @Nullable
+    private Object getPending(String key) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return null;
+        }
+        Object value = batch.mPending.get(key);
+        return value == null && batch.mCleared ? REMOVED : value;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return mPrefs.getAll();
+        }
+        Map<String, Object> all = batch.mCleared ? new HashMap<>() : new HashMap<>(mPrefs.getAll());
+        for (Map.Entry<String, Object> entry : batch.mPending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                all.remove(entry.getKey());
+            } else {
+                all.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getString(key, defValue);
+        }
+        return value == REMOVED ? defValue : (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getStringSet(key, defValues);
+        }
+        return value == REMOVED ? defValues : (Set<String>) value;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getInt(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Integer) value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getLong(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Long) value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getFloat(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Float) value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.getBoolean(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Object value = getPending(key);
+        if (value == null) {
+            return mPrefs.contains(key);
+        }
+        return value != REMOVED;
+    }
+
+    @Override
+    public Editor edit() {
+        Batch batch = mBatch.get();
+        return batch != null ? batch : mPrefs.edit();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mPrefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mPrefs.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Editor shared by all the writes of a batch, which records them so that reads of the batching
+     * thread can see them.
+     */
+    private static final class Batch implements Editor {
+        private final SharedPreferences mPrefs;
+        private final Map<String, Object> mPending = new HashMap<>();
+        private Editor mEditor;
+        private int mDepth;
+        private boolean mCleared;
+        private boolean mModified;
+        private boolean mFailed;
+
+        Batch(SharedPreferences prefs) {
+            mPrefs = prefs;
+            mEditor = prefs.edit();
+        }
+
+        private Editor put(String key, @Nullable Object value) {
+            mPending.put(key, value != null ? value : REMOVED);
+            mModified = true;
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            mEditor.putString(key, value);
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            mEditor.putStringSet(key, values);
+            return put(key, values != null ? new HashSet<>(values) : null);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mEditor.putInt(key, value);
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mEditor.putLong(key, value);
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mEditor.putFloat(key, value);
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mEditor.putBoolean(key, value);
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mEditor.remove(key);
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            mEditor.clear();
+            // Like with any editor, clearing applies before the other writes of the batch.
+            mCleared = true;
+            mModified = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            boolean result = mEditor.commit();
+            // The written values are now read from the preferences themselves.
+            mEditor = mPrefs.edit();
+            mPending.clear();
+            mCleared = false;
+            mModified = false;
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            // Written once the batch ends.
+        }
+    }
+}
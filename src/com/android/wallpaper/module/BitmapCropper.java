@@ -17,6 +17,7 @@ package com.android.wallpaper.module;
 
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.os.CancellationSignal;
 
 import androidx.annotation.Nullable;
 
@@ -34,6 +35,15 @@ public interface BitmapCropper {
     void cropAndScaleBitmap(Asset asset, float scale, Rect cropRect, boolean adjustForRtl,
             Callback callback);
 
+    /**
+     * Same as {@link #cropAndScaleBitmap(Asset, float, Rect, boolean, Callback)}, but the
+     * operation can be aborted with the given signal, in which case the callback isn't called.
+     */
+    default void cropAndScaleBitmap(Asset asset, float scale, Rect cropRect, boolean adjustForRtl,
+            @Nullable CancellationSignal cancellationSignal, Callback callback) {
+        cropAndScaleBitmap(asset, scale, cropRect, adjustForRtl, callback);
+    }
+
     /**
      * Interface for receiving the output bitmap of crop operations.
      */
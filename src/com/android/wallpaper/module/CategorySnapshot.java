@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Parcel;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.asset.Asset;
+import com.android.wallpaper.asset.ResourceAsset;
+import com.android.wallpaper.model.Category;
+import com.android.wallpaper.model.LiveWallpaperInfo;
+import com.android.wallpaper.model.ThirdPartyLiveWallpaperCategory;
+import com.android.wallpaper.model.WallpaperCategory;
+import com.android.wallpaper.model.WallpaperInfo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-disk snapshot of the categories fetched by {@link DefaultCategoryProvider}, so that they can
+ * be shown right away on a cold start while they are fetched again in the background.
+ *
+ * <p>The snapshot is stored as a marshalled {@link Parcel}, which is only safe to read back with
+ * the same build and app version. Both are part of the {@link #computeKey key} it is stored with,
+ * along with the partner APK version and the locale, so a snapshot is simply ignored once any of
+ * them changes. The snapshot also records the version of each package its live wallpapers come
+ * from, and is ignored once one of them is updated or removed. Packages installed since are picked
+ * up by the fetch which follows the snapshot, as are other package changes.
+ */
+class CategorySnapshot {
+    private static final String TAG = "CategorySnapshot";
+    private static final String FILE_NAME = "category_snapshot";
+    private static final int VERSION = 2;
+
+    private static final int TYPE_WALLPAPER = 0;
+    private static final int TYPE_LIVE_WALLPAPER = 1;
+
+    private final Context mAppContext;
+    private final AtomicFile mFile;
+
+    CategorySnapshot(Context context) {
+        mAppContext = context.getApplicationContext();
+        mFile = new AtomicFile(new File(mAppContext.getCacheDir(), FILE_NAME));
+    }
+
+    /**
+     * Returns whether the given category can be stored in a snapshot. Subclasses of the supported
+     * categories may hold state which the snapshot wouldn't restore, so only exact types are.
+     */
+    static boolean canSnapshot(@Nullable Category category) {
+        return category != null && (category.getClass() == WallpaperCategory.class
+                || category.getClass() == ThirdPartyLiveWallpaperCategory.class);
+    }
+
+    /**
+     * Computes the key identifying the current source of the categories. Should only be called off
+     * the main UI thread.
+     */
+    String computeKey(PartnerProvider partnerProvider) {
+        PackageManager packageManager = mAppContext.getPackageManager();
+        StringBuilder key = new StringBuilder()
+                .append(VERSION)
+                .append('|').append(Build.FINGERPRINT)
+                .append('|').append(getLastUpdateTime(packageManager,
+                        mAppContext.getPackageName()))
+                .append('|').append(mAppContext.getResources().getConfiguration().getLocales()
+                        .toLanguageTags());
+
+        String partnerPackageName = partnerProvider.getPackageName();
+        if (partnerPackageName != null) {
+            key.append('|').append(partnerPackageName)
+                    .append('@').append(getLastUpdateTime(packageManager, partnerPackageName));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads the categories stored with the given key. Should only be called off the main UI
+     * thread.
+     *
+     * @param partnerRes Resources of the partner APK, used to restore category thumbnails.
+     * @return the stored categories, or null if there's no snapshot stored with the given key.
+     */
+    @Nullable
+    List<Category> read(String key, @Nullable Resources partnerRes) {
+        if (!mFile.getBaseFile().exists()) {
+            return null;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            byte[] bytes = mFile.readFully();
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != VERSION || !key.equals(parcel.readString())) {
+                return null;
+            }
+
+            // Live wallpapers of an updated or removed package may have changed.
+            PackageManager packageManager = mAppContext.getPackageManager();
+            int packageCount = parcel.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = parcel.readString();
+                if (parcel.readLong() != getLastUpdateTime(packageManager, packageName)) {
+                    return null;
+                }
+            }
+
+            int size = parcel.readInt();
+            List<Category> categories = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                categories.add(readCategory(parcel, partnerRes));
+            }
+            return categories;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to read category snapshot", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Replaces the stored snapshot with the given categories, ignoring those which
+     * {@link #canSnapshot can't be stored}. Should only be called off the main UI thread.
+     */
+    void write(String key, List<Category> categories) {
+        List<Category> snapshotCategories = new ArrayList<>();
+        for (Category category : categories) {
+            if (canSnapshot(category)) {
+                snapshotCategories.add(category);
+            }
+        }
+
+        Set<String> livePackageNames = new HashSet<>();
+        for (Category category : snapshotCategories) {
+            for (WallpaperInfo wallpaper
+                    : ((WallpaperCategory) category).getUnmodifiableWallpapers()) {
+                if (wallpaper instanceof LiveWallpaperInfo) {
+                    livePackageNames.add(((LiveWallpaperInfo) wallpaper).getWallpaperComponent()
+                            .getPackageName());
+                }
+            }
+        }
+
+        PackageManager packageManager = mAppContext.getPackageManager();
+        byte[] bytes;
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeString(key);
+            parcel.writeInt(livePackageNames.size());
+            for (String packageName : livePackageNames) {
+                parcel.writeString(packageName);
+                parcel.writeLong(getLastUpdateTime(packageManager, packageName));
+            }
+            parcel.writeInt(snapshotCategories.size());
+            for (Category category : snapshotCategories) {
+                writeCategory(parcel, (WallpaperCategory) category);
+            }
+            bytes = parcel.marshall();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to marshall category snapshot", e);
+            return;
+        } finally {
+            parcel.recycle();
+        }
+
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = mFile.startWrite();
+            outputStream.write(bytes);
+            mFile.finishWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write category snapshot", e);
+            mFile.failWrite(outputStream);
+        }
+    }
+
+    private static void writeCategory(Parcel parcel, WallpaperCategory category) {
+        boolean isLive = category instanceof ThirdPartyLiveWallpaperCategory;
+        parcel.writeInt(isLive ? TYPE_LIVE_WALLPAPER : TYPE_WALLPAPER);
+        parcel.writeString(category.getTitle());
+        parcel.writeString(category.getCollectionId());
+        parcel.writeInt(category.getPriority());
+        parcel.writeInt(category.getFeaturedThumbnailIndex());
+        Asset customThumbnail = category.getCustomThumbnail();
+        parcel.writeInt(customThumbnail instanceof ResourceAsset
+                ? ((ResourceAsset) customThumbnail).getResId() : 0);
+        parcel.writeParcelableList(category.getUnmodifiableWallpapers(), /* flags= */ 0);
+        if (isLive) {
+            ThirdPartyLiveWallpaperCategory liveCategory =
+                    (ThirdPartyLiveWallpaperCategory) category;
+            parcel.writeStringList(liveCategory.getExcludedPackages() != null
+                    ? new ArrayList<>(liveCategory.getExcludedPackages()) : null);
+        }
+    }
+
+    private static Category readCategory(Parcel parcel, @Nullable Resources partnerRes) {
+        int type = parcel.readInt();
+        String title = parcel.readString();
+        String collectionId = parcel.readString();
+        int priority = parcel.readInt();
+        int featuredThumbnailIndex = parcel.readInt();
+        int thumbResId = parcel.readInt();
+        List<WallpaperInfo> wallpapers = parcel.readParcelableList(
+                new ArrayList<>(), WallpaperInfo.class.getClassLoader());
+
+        if (type == TYPE_LIVE_WALLPAPER) {
+            List<String> excludedPackages = parcel.createStringArrayList();
+            return new ThirdPartyLiveWallpaperCategory(title, collectionId, wallpapers, priority,
+                    excludedPackages != null ? new HashSet<>(excludedPackages) : null);
+        }
+        if (thumbResId != 0 && partnerRes != null) {
+            return new WallpaperCategory(title, collectionId,
+                    new ResourceAsset(partnerRes, thumbResId), wallpapers, priority);
+        }
+        return new WallpaperCategory(title, collectionId, featuredThumbnailIndex, wallpapers,
+                priority);
+    }
+
+    private static long getLastUpdateTime(PackageManager packageManager, String packageName) {
+        try {
+            return packageManager.getPackageInfo(packageName, /* flags= */ 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps of the daily wallpaper rotations of the last week, in chronological order, stored in
+ * a small ring buffer file of longs.
+ *
+ * <p>Appending a rotation writes only its slot and the header of the file, and expires the
+ * rotations older than a week before it. The whole history is read once and then kept in memory.
+ */
+class DailyRotationHistory {
+    private static final String TAG = "DailyRotationHistory";
+
+    private static final int VERSION = 1;
+    // Rotations happen at most a few times a day, so this comfortably covers a week.
+    private static final int CAPACITY = 64;
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // Version, index of the oldest timestamp and number of timestamps.
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    private final File mFile;
+    private final long[] mTimestamps = new long[CAPACITY];
+    private int mStart;
+    private int mCount;
+    private boolean mLoaded;
+
+    DailyRotationHistory(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns whether the history file exists, even if empty.
+     */
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Records a rotation at the given time, expiring those more than a week older than it.
+     * Timestamps are expected to be appended in chronological order.
+     */
+    synchronized void append(long timestamp) {
+        load();
+        while (mCount > 0 && mTimestamps[mStart] < timestamp - MAX_AGE_MILLIS) {
+            dropOldest();
+        }
+        if (mCount == CAPACITY) {
+            dropOldest();
+        }
+        int slot = (mStart + mCount) % CAPACITY;
+        mTimestamps[slot] = timestamp;
+        mCount++;
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(HEADER_SIZE + (long) slot * Long.BYTES);
+            file.writeLong(timestamp);
+            writeHeader(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append daily rotation", e);
+        }
+    }
+
+    /**
+     * Returns the timestamp of the last rotation, or -1 if there's none.
+     */
+    synchronized long getLast() {
+        load();
+        return mCount == 0 ? -1 : mTimestamps[(mStart + mCount - 1) % CAPACITY];
+    }
+
+    /**
+     * Returns the timestamps of the rotations from the given start time, inclusive, to the given
+     * end time, exclusive, in chronological order.
+     */
+    synchronized List<Long> query(long fromTimestamp, long toTimestamp) {
+        load();
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = 0; i < mCount; i++) {
+            long timestamp = mTimestamps[(mStart + i) % CAPACITY];
+            if (timestamp >= fromTimestamp && timestamp < toTimestamp) {
+                timestamps.add(timestamp);
+            }
+        }
+        return timestamps;
+    }
+
+    /**
+     * Forgets all rotations.
+     */
+    synchronized void clear() {
+        mStart = 0;
+        mCount = 0;
+        mLoaded = true;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Unable to delete daily rotation history");
+        }
+    }
+
+    private void dropOldest() {
+        mStart = (mStart + 1) % CAPACITY;
+        mCount--;
+    }
+
+    private void writeHeader(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(VERSION);
+        file.writeInt(mStart);
+        file.writeInt(mCount);
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            if (file.readInt() != VERSION) {
+                return;
+            }
+            int start = file.readInt();
+            int count = file.readInt();
+            if (start < 0 || start >= CAPACITY || count < 0 || count > CAPACITY) {
+                Log.w(TAG, "Ignoring corrupt daily rotation history");
+                return;
+            }
+            // Only the slots written so far are present in the file.
+            for (int i = 0; i < count; i++) {
+                int slot = (start + i) % CAPACITY;
+                file.seek(HEADER_SIZE + (long) slot * Long.BYTES);
+                mTimestamps[slot] = file.readLong();
+            }
+            mStart = start;
+            mCount = count;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read daily rotation history", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import androidx.annotation.IntDef;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Interface for the shared scheduler on which all bitmap decoding and other image processing work
+ * of the app is run. Work is queued in priority lanes so that what the user is looking at is
+ * decoded before speculative or background work.
+ */
+public interface DecodeScheduler {
+
+    /** Thumbnails of tiles which are currently visible on screen. */
+    int LANE_VISIBLE_TILE = 0;
+    /** Full resolution images and regions shown in a preview. */
+    int LANE_FULL_RES_PREVIEW = 1;
+    /** Speculative work for content which is likely to become visible soon. */
+    int LANE_PREFETCH = 2;
+    /** Work whose result is not immediately needed by the UI. */
+    int LANE_BACKGROUND = 3;
+
+    int LANE_COUNT = 4;
+
+    /**
+     * Queues the given task in the given lane.
+     *
+     * @return a Future which can be used to cancel the task. Cancelling a task which hasn't started
+     * yet removes it from the queue.
+     */
+    Future<?> submit(@Lane int lane, Runnable task);
+
+    /**
+     * Queues the given task in the given lane.
+     *
+     * @return a Future to obtain the result of the task, or to cancel it.
+     */
+    <T> Future<T> submit(@Lane int lane, Callable<T> task);
+
+    /**
+     * Returns the number of tasks in the given lane which are waiting to be run.
+     */
+    int getQueueDepth(@Lane int lane);
+
+    /**
+     * Returns the highest number of tasks that were waiting in the given lane at the same time
+     * since the scheduler was created.
+     */
+    int getPeakQueueDepth(@Lane int lane);
+
+    /**
+     * Priority lanes of the scheduler, in decreasing order of priority.
+     */
+    @IntDef({
+            LANE_VISIBLE_TILE,
+            LANE_FULL_RES_PREVIEW,
+            LANE_PREFETCH,
+            LANE_BACKGROUND})
+    @interface Lane {
+    }
+}
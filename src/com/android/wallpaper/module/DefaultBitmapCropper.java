@@ -17,27 +17,35 @@ package com.android.wallpaper.module;
 
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.Asset.BitmapReceiver;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Default implementation of BitmapCropper, which actually crops and scales bitmaps.
  */
 public class DefaultBitmapCropper implements BitmapCropper {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     private static final String TAG = "DefaultBitmapCropper";
     private static final boolean FILTER_SCALED_BITMAP = true;
 
     @Override
     public void cropAndScaleBitmap(Asset asset, float scale, Rect cropRect,
             boolean isRtl, Callback callback) {
+        cropAndScaleBitmap(asset, scale, cropRect, isRtl, /* cancellationSignal= */ null,
+                callback);
+    }
+
+    @Override
+    public void cropAndScaleBitmap(Asset asset, float scale, Rect cropRect,
+            boolean isRtl, @Nullable CancellationSignal cancellationSignal, Callback callback) {
         // Crop rect in pixels of source image.
         Rect scaledCropRect = new Rect(
                 (int) Math.floor((float) cropRect.left / scale),
@@ -46,7 +54,7 @@ public class DefaultBitmapCropper implements BitmapCropper {
                 (int) Math.floor((float) cropRect.bottom / scale));
 
         asset.decodeBitmapRegion(scaledCropRect, cropRect.width(), cropRect.height(), isRtl,
-                new BitmapReceiver() {
+                cancellationSignal, new BitmapReceiver() {
                     @Override
                     public void onBitmapDecoded(Bitmap bitmap) {
                         if (bitmap == null) {
@@ -56,7 +64,13 @@ public class DefaultBitmapCropper implements BitmapCropper {
                         // Asset provides a bitmap which is appropriate for the target width &
                         // height, but since it does not guarantee an exact size we need to fit
                         // the bitmap to the cropRect.
-                        sExecutorService.execute(() -> {
+                        DecodeScheduler decodeScheduler =
+                                InjectorProvider.getInjector().getDecodeScheduler();
+                        Future<?> future = decodeScheduler.submit(
+                                DecodeScheduler.LANE_FULL_RES_PREVIEW, () -> {
+                            if (isCanceled(cancellationSignal)) {
+                                return;
+                            }
                             try {
                                 // Fit bitmap to exact dimensions of crop rect.
                                 Bitmap result = Bitmap.createScaledBitmap(
@@ -64,8 +78,11 @@ public class DefaultBitmapCropper implements BitmapCropper {
                                         cropRect.width(),
                                         cropRect.height(),
                                         FILTER_SCALED_BITMAP);
-                                new Handler(Looper.getMainLooper()).post(
-                                        () -> callback.onBitmapCropped(result));
+                                new Handler(Looper.getMainLooper()).post(() -> {
+                                    if (!isCanceled(cancellationSignal)) {
+                                        callback.onBitmapCropped(result);
+                                    }
+                                });
                             } catch (OutOfMemoryError e) {
                                 Log.w(TAG,
                                         "Not enough memory to fit the final cropped and "
@@ -73,7 +90,14 @@ public class DefaultBitmapCropper implements BitmapCropper {
                                 new Handler(Looper.getMainLooper()).post(() -> callback.onError(e));
                             }
                         });
+                        if (cancellationSignal != null) {
+                            cancellationSignal.setOnCancelListener(() -> future.cancel(false));
+                        }
                     }
                 });
     }
+
+    private static boolean isCanceled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
 }
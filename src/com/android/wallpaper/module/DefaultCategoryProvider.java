@@ -22,9 +22,14 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Xml;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.XmlRes;
 
 import com.android.wallpaper.R;
@@ -42,6 +47,8 @@ import com.android.wallpaper.model.ThirdPartyLiveWallpaperCategory;
 import com.android.wallpaper.model.WallpaperCategory;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.module.NetworkStatusNotifier.NetworkStatus;
+import com.android.wallpaper.module.PackageStatusNotifier.PackageStatus;
+import com.android.wallpaper.monitor.PerformanceMonitor;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -51,9 +58,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -72,12 +89,46 @@ public class DefaultCategoryProvider implements CategoryProvider {
     private static final int PRIORITY_ON_DEVICE = 200;
     private static final int PRIORITY_LIVE = 300;
     private static final int PRIORITY_THIRD_PARTY = 400;
+
+    /**
+     * Names of the sources of categories, as reported to the {@link PerformanceMonitor}.
+     */
+    private static final String SOURCE_SYSTEM = "system";
+    private static final String SOURCE_ON_DEVICE = "on_device";
+    private static final String SOURCE_LIVE = "live";
+    private static final String SOURCE_THIRD_PARTY = "third_party";
+    /**
+     * Names of the sources of the categories of a single changed package, reported apart from
+     * the sources above so that the time of full fetches isn't skewed.
+     */
+    private static final String SOURCE_LIVE_PACKAGE = "live_package";
+    private static final String SOURCE_THIRD_PARTY_PACKAGE = "third_party_package";
+
+    /**
+     * Number of sources of categories queried concurrently, besides the system categories which
+     * are parsed on the fetching thread itself.
+     */
+    private static final int MAX_CONCURRENT_SOURCES = 3;
+    private static final long SOURCE_THREAD_KEEP_ALIVE_SECONDS = 10;
+    private static final String SOURCE_THREAD_NAME_PREFIX = "CategorySource-";
+
+    private static final List<String> EXCLUDED_THIRD_PARTY_PACKAGE_NAMES = Arrays.asList(
+            "com.android.launcher", // Legacy launcher
+            "com.android.wallpaper.livepicker"); // Live wallpaper picker
+
     protected static List<Category> sSystemCategories;
 
+    private static final ThreadPoolExecutor sSourceExecutor = createSourceExecutor();
+
     protected final Context mAppContext;
     protected ArrayList<Category> mCategories;
     protected boolean mFetchedCategories;
 
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Package updates which arrived while categories were being fetched.
+    private final List<Runnable> mPendingPackageUpdates = new ArrayList<>();
+    private boolean mIsFetching;
+
     private NetworkStatusNotifier mNetworkStatusNotifier;
     // The network status of the last fetch from the server.
     @NetworkStatus
@@ -109,6 +160,133 @@ public class DefaultCategoryProvider implements CategoryProvider {
         doFetch(receiver, forceRefresh);
     }
 
+    @Override
+    public void updateLiveWallpaperCategory(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver) {
+        if (!mFetchedCategories) {
+            if (!deferPackageUpdateIfFetching(
+                    () -> updateLiveWallpaperCategory(packageName, status, receiver))) {
+                receiver.doneFetchingCategories();
+            }
+            return;
+        }
+        String collectionId = mAppContext.getString(R.string.live_wallpaper_collection_id);
+        Set<String> excludedPackageNames = getExcludedLiveWallpaperPackageNames();
+        if (excludedPackageNames.contains(packageName)) {
+            receiver.doneFetchingCategories();
+            return;
+        }
+
+        resolvePackage(SOURCE_LIVE_PACKAGE, status, () -> LiveWallpaperInfo.getAllFromPackage(
+                mAppContext, packageName), wallpapers -> {
+            Category liveCategory = getCategory(collectionId);
+            if (liveCategory instanceof ThirdPartyLiveWallpaperCategory) {
+                ThirdPartyLiveWallpaperCategory thirdPartyLiveCategory =
+                        (ThirdPartyLiveWallpaperCategory) liveCategory;
+                if (thirdPartyLiveCategory.replacePackageWallpapers(mAppContext, packageName,
+                        wallpapers)) {
+                    if (thirdPartyLiveCategory.isEmpty()) {
+                        mCategories.remove(liveCategory);
+                        receiver.onCategoryRemoved(liveCategory);
+                    } else {
+                        receiver.onCategoryReceived(liveCategory);
+                    }
+                }
+            } else if (liveCategory == null && !wallpapers.isEmpty()) {
+                liveCategory = new ThirdPartyLiveWallpaperCategory(
+                        mAppContext.getString(R.string.live_wallpapers_category_title),
+                        collectionId,
+                        wallpapers,
+                        PRIORITY_LIVE,
+                        excludedPackageNames);
+                mCategories.add(liveCategory);
+                receiver.onCategoryReceived(liveCategory);
+            }
+            receiver.doneFetchingCategories();
+        });
+    }
+
+    @Override
+    public void updateThirdPartyAppCategories(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver) {
+        if (!mFetchedCategories) {
+            if (!deferPackageUpdateIfFetching(
+                    () -> updateThirdPartyAppCategories(packageName, status, receiver))) {
+                receiver.doneFetchingCategories();
+            }
+            return;
+        }
+
+        List<String> excludedPackageNames = getExcludedThirdPartyPackageNames();
+        resolvePackage(SOURCE_THIRD_PARTY_PACKAGE, status,
+                () -> ThirdPartyAppCategory.getFromPackage(mAppContext, packageName,
+                        PRIORITY_THIRD_PARTY, excludedPackageNames),
+                thirdPartyApps -> {
+            Iterator<Category> iterator = mCategories.iterator();
+            while (iterator.hasNext()) {
+                Category category = iterator.next();
+                if (category instanceof ThirdPartyAppCategory
+                        && category.containsThirdParty(packageName)
+                        && !thirdPartyApps.contains(category)) {
+                    iterator.remove();
+                    receiver.onCategoryRemoved(category);
+                }
+            }
+            for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
+                int index = mCategories.indexOf(thirdPartyApp);
+                if (index >= 0) {
+                    mCategories.set(index, thirdPartyApp);
+                } else {
+                    mCategories.add(thirdPartyApp);
+                }
+                receiver.onCategoryReceived(thirdPartyApp);
+            }
+            receiver.doneFetchingCategories();
+        });
+    }
+
+    /**
+     * Defers a package update which arrives while categories are being fetched until the fetch is
+     * done, since the fetch may have queried the package before it changed.
+     *
+     * @return whether the update was deferred, which it isn't if no fetch is in progress, as the
+     * next fetch picks up the change anyway.
+     */
+    private boolean deferPackageUpdateIfFetching(Runnable update) {
+        if (!mIsFetching) {
+            return false;
+        }
+        mPendingPackageUpdates.add(update);
+        return true;
+    }
+
+    /**
+     * Resolves the categories of a single package on the shared discovery executor, then hands
+     * them to the given consumer on the main thread. A removed package has nothing left to
+     * resolve, so it's handed an empty list right away.
+     */
+    private <T> void resolvePackage(String source, @PackageStatus int status,
+            Callable<List<T>> resolver, Consumer<List<T>> consumer) {
+        if (status == PackageStatus.REMOVED) {
+            consumer.accept(new ArrayList<>());
+            return;
+        }
+        sSourceExecutor.execute(() -> {
+            long startTime = SystemClock.elapsedRealtime();
+            List<T> result;
+            try {
+                result = resolver.call();
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to resolve categories of changed package from " + source, e);
+                result = new ArrayList<>();
+            }
+            FetchCategoriesTask.recordSourceFetchTime(source,
+                    SystemClock.elapsedRealtime() - startTime);
+            List<T> resolved = result;
+            mMainHandler.post(() -> consumer.accept(resolved));
+        });
+    }
+
     @Override
     public int getSize() {
         return mFetchedCategories ? mCategories.size() : 0;
@@ -160,17 +338,86 @@ public class DefaultCategoryProvider implements CategoryProvider {
             @Override
             public void onCategoryReceived(Category category) {
                 receiver.onCategoryReceived(category);
-                mCategories.add(category);
+                // Placeholders and snapshot categories are replaced by the fetched category.
+                int index = mCategories.indexOf(category);
+                if (index >= 0) {
+                    mCategories.set(index, category);
+                } else {
+                    mCategories.add(category);
+                }
+            }
+
+            @Override
+            public void onCategoryRemoved(Category category) {
+                receiver.onCategoryRemoved(category);
+                mCategories.remove(category);
             }
 
             @Override
             public void doneFetchingCategories() {
                 receiver.doneFetchingCategories();
                 mFetchedCategories = true;
+                mIsFetching = false;
+                // Apply the package changes the fetch may have missed.
+                List<Runnable> pendingPackageUpdates = new ArrayList<>(mPendingPackageUpdates);
+                mPendingPackageUpdates.clear();
+                for (Runnable update : pendingPackageUpdates) {
+                    update.run();
+                }
             }
         };
 
-        new FetchCategoriesTask(delegatingReceiver, mAppContext).execute();
+        mIsFetching = true;
+        new FetchCategoriesTask(delegatingReceiver, this, /* useSnapshot= */ !forceRefresh)
+                .execute();
+    }
+
+    /**
+     * Returns the packages whose live wallpapers are left out of the live wallpapers category,
+     * both when all categories are fetched and when a single package changes.
+     */
+    protected Set<String> getExcludedLiveWallpaperPackageNames() {
+        return getSystemLiveWallpaperPackageNames();
+    }
+
+    /**
+     * Returns the packages which aren't listed as third party app categories, both when all
+     * categories are fetched and when a single package changes.
+     */
+    protected List<String> getExcludedThirdPartyPackageNames() {
+        return EXCLUDED_THIRD_PARTY_PACKAGE_NAMES;
+    }
+
+    private static ThreadPoolExecutor createSourceExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Sources are parsed at background priority so as not to compete with the UI thread.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_SOURCES,
+                MAX_CONCURRENT_SOURCES, SOURCE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, SOURCE_THREAD_NAME_PREFIX + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the packages of the live wallpapers listed by the system categories, which are left
+     * out of the live wallpapers category.
+     */
+    private static Set<String> getSystemLiveWallpaperPackageNames() {
+        Set<String> packageNames = new HashSet<>();
+        if (sSystemCategories != null) {
+            packageNames.addAll(sSystemCategories.stream()
+                    .filter(c -> c instanceof WallpaperCategory)
+                    .flatMap(c -> ((WallpaperCategory) c).getUnmodifiableWallpapers().stream()
+                            .filter(wallpaperInfo -> wallpaperInfo instanceof LiveWallpaperInfo)
+                            .map(wallpaperInfo ->
+                                    ((LiveWallpaperInfo) wallpaperInfo).getWallpaperComponent()
+                                            .getPackageName()))
+                    .collect(Collectors.toSet()));
+        }
+        return packageNames;
     }
 
     private Locale getLocale() {
@@ -180,15 +427,38 @@ public class DefaultCategoryProvider implements CategoryProvider {
     /**
      * AsyncTask subclass used for fetching all the categories and pushing them one at a time to
      * the receiver.
+     * <p>
+     * If enabled, the categories stored in the {@link CategorySnapshot} by the previous fetch are
+     * pushed first so that they can be shown right away. Those which aren't fetched again are
+     * then reported as removed once the fetch is done.
      */
     protected static class FetchCategoriesTask extends AsyncTask<Void, Category, Void> {
         private CategoryReceiver mReceiver;
         private PartnerProvider mPartnerProvider;
+        protected final DefaultCategoryProvider mProvider;
         protected final Context mAppContext;
+        private final boolean mUseSnapshot;
+        private final CategorySnapshot mSnapshot;
+        // Categories pushed from the snapshot, and IDs of those fetched since.
+        private final Set<Category> mSnapshotCategories =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<String> mFetchedCollectionIds = new HashSet<>();
+
+        public FetchCategoriesTask(CategoryReceiver receiver, DefaultCategoryProvider provider) {
+            this(receiver, provider, /* useSnapshot= */ false);
+        }
 
-        public FetchCategoriesTask(CategoryReceiver receiver, Context context) {
+        /**
+         * @param provider Provider the categories are fetched for, which excludes packages.
+         * @param useSnapshot Whether to push the categories of the previous fetch first.
+         */
+        public FetchCategoriesTask(CategoryReceiver receiver, DefaultCategoryProvider provider,
+                boolean useSnapshot) {
             mReceiver = receiver;
-            mAppContext = context.getApplicationContext();
+            mProvider = provider;
+            mAppContext = provider.mAppContext;
+            mUseSnapshot = useSnapshot;
+            mSnapshot = new CategorySnapshot(mAppContext);
         }
 
         @Override
@@ -196,39 +466,121 @@ public class DefaultCategoryProvider implements CategoryProvider {
             mPartnerProvider = InjectorProvider.getInjector().getPartnerProvider(
                     mAppContext);
 
+            // Sources mostly block on PackageManager, so query them concurrently. The system
+            // categories are parsed on this thread, and results are published in priority order.
+            Future<Category> onDeviceFuture = submitSource(SOURCE_ON_DEVICE,
+                    // Legacy On-device wallpapers. Only show if on mobile.
+                    this::getOnDeviceCategory);
+            Future<List<WallpaperInfo>> liveFuture = null;
+            // Live wallpapers -- if the device supports them.
+            if (mAppContext.getPackageManager().hasSystemFeature(
+                    PackageManager.FEATURE_LIVE_WALLPAPER)) {
+                // The live wallpapers of the system categories are excluded once these are known.
+                liveFuture = submitSource(SOURCE_LIVE,
+                        () -> LiveWallpaperInfo.getAll(mAppContext, /* excluded= */ null));
+            }
+            Future<List<ThirdPartyAppCategory>> thirdPartyFuture = submitSource(SOURCE_THIRD_PARTY,
+                    () -> ThirdPartyAppCategory.getAll(mAppContext, PRIORITY_THIRD_PARTY,
+                            mProvider.getExcludedThirdPartyPackageNames()));
+
+            String snapshotKey = mSnapshot.computeKey(mPartnerProvider);
+            if (mUseSnapshot) {
+                List<Category> snapshotCategories =
+                        mSnapshot.read(snapshotKey, mPartnerProvider.getResources());
+                if (snapshotCategories != null) {
+                    mSnapshotCategories.addAll(snapshotCategories);
+                    publishProgress(snapshotCategories.toArray(new Category[0]));
+                }
+            }
+            List<Category> fetchedCategories = new ArrayList<>();
+
             // "My photos" wallpapers
             publishProgress(getMyPhotosCategory());
 
+            long systemStartTime = SystemClock.elapsedRealtime();
             publishDeviceCategories();
+            recordSourceFetchTime(SOURCE_SYSTEM, SystemClock.elapsedRealtime() - systemStartTime);
+            if (sSystemCategories != null) {
+                fetchedCategories.addAll(sSystemCategories);
+            }
 
-            // Legacy On-device wallpapers. Only show if on mobile.
-            publishProgress(getOnDeviceCategory());
-
-            // Live wallpapers -- if the device supports them.
-            if (mAppContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LIVE_WALLPAPER)) {
-                List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(
-                        mAppContext, getExcludedLiveWallpaperPackageNames());
+            Category onDeviceCategory = awaitSource(SOURCE_ON_DEVICE, onDeviceFuture);
+            publishProgress(onDeviceCategory);
+            fetchedCategories.add(onDeviceCategory);
+
+            List<WallpaperInfo> liveWallpapers = awaitSource(SOURCE_LIVE, liveFuture);
+            if (liveWallpapers != null) {
+                Set<String> excludedPackageNames =
+                        mProvider.getExcludedLiveWallpaperPackageNames();
+                liveWallpapers.removeIf(wallpaper -> wallpaper.getWallpaperComponent() != null
+                        && excludedPackageNames.contains(
+                                wallpaper.getWallpaperComponent().getPackageName()));
                 if (liveWallpapers.size() > 0) {
-                    publishProgress(
-                            new ThirdPartyLiveWallpaperCategory(
-                                    mAppContext.getString(R.string.live_wallpapers_category_title),
-                                    mAppContext.getString(R.string.live_wallpaper_collection_id),
-                                    liveWallpapers,
-                                    PRIORITY_LIVE,
-                                    getExcludedLiveWallpaperPackageNames()));
+                    Category liveCategory = new ThirdPartyLiveWallpaperCategory(
+                            mAppContext.getString(R.string.live_wallpapers_category_title),
+                            mAppContext.getString(R.string.live_wallpaper_collection_id),
+                            liveWallpapers,
+                            PRIORITY_LIVE,
+                            excludedPackageNames);
+                    publishProgress(liveCategory);
+                    fetchedCategories.add(liveCategory);
                 }
             }
+            mSnapshot.write(snapshotKey, fetchedCategories);
 
             // Third party apps.
-            List<ThirdPartyAppCategory> thirdPartyApps = ThirdPartyAppCategory.getAll(
-                    mAppContext, PRIORITY_THIRD_PARTY, getExcludedThirdPartyPackageNames());
-            for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
-                publishProgress(thirdPartyApp);
+            List<ThirdPartyAppCategory> thirdPartyApps =
+                    awaitSource(SOURCE_THIRD_PARTY, thirdPartyFuture);
+            if (thirdPartyApps != null) {
+                for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
+                    publishProgress(thirdPartyApp);
+                }
             }
 
             return null;
         }
 
+        /**
+         * Runs the given source of categories on the shared discovery executor, and records how
+         * long it took.
+         */
+        private <T> Future<T> submitSource(String source, Callable<T> fetcher) {
+            return sSourceExecutor.submit(() -> {
+                long startTime = SystemClock.elapsedRealtime();
+                try {
+                    return fetcher.call();
+                } finally {
+                    recordSourceFetchTime(source, SystemClock.elapsedRealtime() - startTime);
+                }
+            });
+        }
+
+        /**
+         * Waits for the result of a source submitted with {@link #submitSource}.
+         *
+         * @return the result of the source, or null if it failed or wasn't submitted.
+         */
+        @Nullable
+        private static <T> T awaitSource(String source, @Nullable Future<T> future) {
+            if (future == null) {
+                return null;
+            }
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Unable to fetch " + source + " categories", e.getCause());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while fetching " + source + " categories");
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        private static void recordSourceFetchTime(String source, long durationMillis) {
+            InjectorProvider.getInjector().getPerformanceMonitor()
+                    .recordCategorySourceFetchTime(source, durationMillis);
+        }
+
         /**
          * Publishes the device categories.
          */
@@ -242,27 +594,6 @@ public class DefaultCategoryProvider implements CategoryProvider {
             sSystemCategories = getSystemCategories();
         }
 
-        public Set<String> getExcludedLiveWallpaperPackageNames() {
-            Set<String> excluded = new HashSet<>();
-            if (sSystemCategories != null) {
-                excluded.addAll(sSystemCategories.stream()
-                        .filter(c -> c instanceof WallpaperCategory)
-                        .flatMap(c -> ((WallpaperCategory) c).getUnmodifiableWallpapers().stream()
-                                .filter(wallpaperInfo -> wallpaperInfo instanceof LiveWallpaperInfo)
-                                .map(wallpaperInfo ->
-                                        ((LiveWallpaperInfo) wallpaperInfo).getWallpaperComponent()
-                                                .getPackageName()))
-                        .collect(Collectors.toSet()));
-            }
-            return excluded;
-        }
-
-        protected List<String> getExcludedThirdPartyPackageNames() {
-            return Arrays.asList(
-                    "com.android.launcher", // Legacy launcher
-                    "com.android.wallpaper.livepicker"); // Live wallpaper picker
-        }
-
         /**
          * Return a list of WallpaperInfos specific to this app. Overriding this method will
          * allow derivative projects to add custom wallpaper tiles to the
@@ -390,6 +721,9 @@ public class DefaultCategoryProvider implements CategoryProvider {
             for (int i = 0; i < values.length; i++) {
                 Category category = values[i];
                 if (category != null) {
+                    if (!mSnapshotCategories.contains(category)) {
+                        mFetchedCollectionIds.add(category.getCollectionId());
+                    }
                     mReceiver.onCategoryReceived(category);
                 }
             }
@@ -397,6 +731,11 @@ public class DefaultCategoryProvider implements CategoryProvider {
 
         @Override
         protected void onPostExecute(Void unused) {
+            for (Category category : mSnapshotCategories) {
+                if (!mFetchedCollectionIds.contains(category.getCollectionId())) {
+                    mReceiver.onCategoryRemoved(category);
+                }
+            }
             mReceiver.doneFetchingCategories();
         }
     }
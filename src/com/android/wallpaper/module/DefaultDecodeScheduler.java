@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default implementation of {@link DecodeScheduler}, backed by a fixed size thread pool whose size
+ * depends on the number of CPU cores of the device.
+ */
+public class DefaultDecodeScheduler implements DecodeScheduler {
+    private static final String THREAD_NAME_PREFIX = "WallpaperDecode-";
+    private static final int MAX_POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicInteger[] mQueueDepths = new AtomicInteger[LANE_COUNT];
+    private final AtomicInteger[] mPeakQueueDepths = new AtomicInteger[LANE_COUNT];
+
+    public DefaultDecodeScheduler() {
+        this(calculatePoolSize(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public DefaultDecodeScheduler(int poolSize) {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mQueueDepths[i] = new AtomicInteger();
+            mPeakQueueDepths[i] = new AtomicInteger();
+        }
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Leaves one core to the UI thread and caps the pool so that concurrent decodes don't exhaust
+     * memory on devices with many cores.
+     */
+    static int calculatePoolSize(int cpuCount) {
+        return Math.max(1, Math.min(cpuCount - 1, MAX_POOL_SIZE));
+    }
+
+    @Override
+    public Future<?> submit(@Lane int lane, Runnable task) {
+        return submit(lane, Executors.callable(task));
+    }
+
+    @Override
+    public <T> Future<T> submit(@Lane int lane, Callable<T> task) {
+        DecodeTask<T> decodeTask = new DecodeTask<>(lane, mSequence.getAndIncrement(), task);
+        int depth = mQueueDepths[lane].incrementAndGet();
+        mPeakQueueDepths[lane].accumulateAndGet(depth, Math::max);
+        mExecutor.execute(decodeTask);
+        return decodeTask;
+    }
+
+    @Override
+    public int getQueueDepth(@Lane int lane) {
+        return mQueueDepths[lane].get();
+    }
+
+    @Override
+    public int getPeakQueueDepth(@Lane int lane) {
+        return mPeakQueueDepths[lane].get();
+    }
+
+    /**
+     * Task ordered first by lane, then by submission order so that tasks of the same lane run in
+     * FIFO order.
+     */
+    private final class DecodeTask<T> extends FutureTask<T> implements Comparable<DecodeTask<?>> {
+        private final int mLane;
+        private final long mSequence;
+        private final AtomicBoolean mQueued = new AtomicBoolean(true);
+
+        DecodeTask(@Lane int lane, long sequence, Callable<T> callable) {
+            super(callable);
+            mLane = lane;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            leaveQueue();
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && leaveQueue()) {
+                mExecutor.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(DecodeTask<?> other) {
+            if (mLane != other.mLane) {
+                return Integer.compare(mLane, other.mLane);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+
+        /**
+         * Returns true if this call took the task out of its lane's queue.
+         */
+        private boolean leaveQueue() {
+            if (mQueued.compareAndSet(true, false)) {
+                mQueueDepths[mLane].decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, THREAD_NAME_PREFIX + mThreadCount.incrementAndGet());
+        }
+    }
+}
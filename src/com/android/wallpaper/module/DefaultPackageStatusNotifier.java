@@ -21,6 +21,8 @@ import android.content.pm.LauncherApps;
 import android.content.pm.PackageManager;
 import android.os.UserHandle;
 
+import com.android.wallpaper.asset.ResourceAsset;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -81,6 +83,7 @@ public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
 
         @Override
         public void onPackageRemoved(String packageName, UserHandle userHandle) {
+            ResourceAsset.onPackageChanged(packageName);
             // We can't check if the removed package is "valid" for the given action, as it's not
             // there any more, so trigger REMOVED for all cases.
             mListener.onPackageChanged(packageName, PackageStatus.REMOVED);
@@ -88,6 +91,7 @@ public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
 
         @Override
         public void onPackageAdded(String packageName, UserHandle userHandle) {
+            ResourceAsset.onPackageChanged(packageName);
             if (isValidPackage(packageName)) {
                 mListener.onPackageChanged(packageName, PackageStatus.ADDED);
             }
@@ -95,6 +99,7 @@ public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
 
         @Override
         public void onPackageChanged(String packageName, UserHandle userHandle) {
+            ResourceAsset.onPackageChanged(packageName);
             if (isValidPackage(packageName)) {
                 mListener.onPackageChanged(packageName, PackageStatus.CHANGED);
             }
@@ -104,6 +109,7 @@ public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
         public void onPackagesAvailable(String[] packageNames, UserHandle userHandle,
                                         boolean replacing) {
             for (String packageName : packageNames) {
+                ResourceAsset.onPackageChanged(packageName);
                 if (isValidPackage(packageName)) {
                     mListener.onPackageChanged(packageName,
                             replacing ? PackageStatus.CHANGED : PackageStatus.ADDED);
@@ -115,6 +121,7 @@ public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
         public void onPackagesUnavailable(String[] packageNames, UserHandle userHandle,
                                           boolean replacing) {
             for (String packageName : packageNames) {
+                ResourceAsset.onPackageChanged(packageName);
                 if (!replacing && isValidPackage(packageName)) {
                     mListener.onPackageChanged(packageName, PackageStatus.REMOVED);
                 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.app.WallpaperColors;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.model.CurrentWallpaperInfoVN;
+import com.android.wallpaper.model.WallpaperInfo;
+import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Default implementation of {@link WallpaperColorExtractor}, which runs at most a few extractions
+ * at a time on the {@link DecodeScheduler}'s background lane.
+ *
+ * <p>Extracted colors are kept in a bounded store keyed by wallpaper ID, so that thumbnails seen in
+ * a previous session aren't analyzed again. Once the store is read in the background, stored
+ * colors are returned right away without queueing an extraction. Wallpapers without an ID
+ * identifying their image, such as the current wallpaper whose image changes under the same
+ * placeholder ID, are extracted every time.
+ */
+public class DefaultWallpaperColorExtractor implements WallpaperColorExtractor {
+    private static final String STORE_FILE_NAME = "thumbnail_colors";
+    private static final int MAX_STORED_COLORS = 512;
+    private static final int MAX_CONCURRENT_EXTRACTIONS = 2;
+    // About a couple of screens of tiles, beyond which pending tiles have likely scrolled away.
+    private static final int MAX_PENDING_TILES = 32;
+
+    private final Context mAppContext;
+    private final DecodeScheduler mDecodeScheduler;
+    private final WallpaperColorsStore mStore;
+
+    private final Object mLock = new Object();
+    // Pending and running requests by wallpaper ID. Guarded by mLock.
+    private final Map<String, Request> mRequests = new HashMap<>();
+    // Pending requests, in the order they were made. Guarded by mLock.
+    private final ArrayDeque<Request> mImmediateQueue = new ArrayDeque<>();
+    private final ArrayDeque<Request> mTileQueue = new ArrayDeque<>();
+    // Guarded by mLock.
+    private int mRunningCount;
+
+    public DefaultWallpaperColorExtractor(Context context, DecodeScheduler decodeScheduler) {
+        mAppContext = context.getApplicationContext();
+        mDecodeScheduler = decodeScheduler;
+        mStore = new WallpaperColorsStore(new File(mAppContext.getCacheDir(), STORE_FILE_NAME),
+                MAX_STORED_COLORS);
+        mDecodeScheduler.submit(DecodeScheduler.LANE_BACKGROUND, mStore::preload);
+    }
+
+    @Override
+    public CompletableFuture<ColorInfo> extract(WallpaperInfo wallpaper, @Priority int priority) {
+        String wallpaperId = getImageId(wallpaper);
+        WallpaperColors storedColors = wallpaperId != null ? mStore.getIfLoaded(wallpaperId) : null;
+        if (storedColors != null) {
+            return CompletableFuture.completedFuture(new ColorInfo(storedColors));
+        }
+
+        List<Request> droppedRequests = new ArrayList<>();
+        Request request;
+        synchronized (mLock) {
+            request = wallpaperId != null ? mRequests.get(wallpaperId) : null;
+            if (request != null) {
+                // Promote a pending tile which is now needed right away, or move it ahead of the
+                // other tiles since it was just bound again.
+                if (mTileQueue.remove(request)) {
+                    if (priority == PRIORITY_IMMEDIATE) {
+                        mImmediateQueue.add(request);
+                    } else {
+                        mTileQueue.addLast(request);
+                    }
+                }
+                return request.mFuture;
+            }
+
+            request = new Request(wallpaperId, wallpaper);
+            if (wallpaperId != null) {
+                mRequests.put(wallpaperId, request);
+            }
+            if (priority == PRIORITY_IMMEDIATE) {
+                mImmediateQueue.add(request);
+            } else {
+                mTileQueue.addLast(request);
+                while (mTileQueue.size() > MAX_PENDING_TILES) {
+                    Request droppedRequest = mTileQueue.removeFirst();
+                    if (droppedRequest.mWallpaperId != null) {
+                        mRequests.remove(droppedRequest.mWallpaperId);
+                    }
+                    droppedRequests.add(droppedRequest);
+                }
+            }
+            startExtractionsLocked();
+        }
+
+        for (Request droppedRequest : droppedRequests) {
+            droppedRequest.mFuture.cancel(false);
+        }
+        return request.mFuture;
+    }
+
+    /**
+     * Returns the ID of the given wallpaper if it identifies its image, or null if requests and
+     * colors of the wallpaper must not be shared under it.
+     */
+    @Nullable
+    private static String getImageId(WallpaperInfo wallpaper) {
+        String wallpaperId = wallpaper.getWallpaperId();
+        if (CurrentWallpaperInfoVN.UNKNOWN_CURRENT_WALLPAPER_ID.equals(wallpaperId)) {
+            return null;
+        }
+        return wallpaperId;
+    }
+
+    private void startExtractionsLocked() {
+        while (mRunningCount < MAX_CONCURRENT_EXTRACTIONS) {
+            // Tiles bound last are the ones most likely to still be on screen.
+            Request request = !mImmediateQueue.isEmpty()
+                    ? mImmediateQueue.poll() : mTileQueue.pollLast();
+            if (request == null) {
+                return;
+            }
+            mRunningCount++;
+            mDecodeScheduler.submit(DecodeScheduler.LANE_BACKGROUND, () -> run(request));
+        }
+    }
+
+    private void run(Request request) {
+        try {
+            request.mFuture.complete(extractColorInfo(request));
+        } catch (RuntimeException e) {
+            request.mFuture.completeExceptionally(e);
+        } finally {
+            synchronized (mLock) {
+                mRunningCount--;
+                if (request.mWallpaperId != null) {
+                    mRequests.remove(request.mWallpaperId, request);
+                }
+                startExtractionsLocked();
+            }
+        }
+    }
+
+    private ColorInfo extractColorInfo(Request request) {
+        // The store may not have been read yet when the request was made.
+        if (request.mWallpaperId != null) {
+            WallpaperColors storedColors = mStore.get(request.mWallpaperId);
+            if (storedColors != null) {
+                return new ColorInfo(storedColors);
+            }
+        }
+
+        Bitmap lowResBitmap =
+                request.mWallpaper.getThumbAsset(mAppContext).getLowResBitmap(mAppContext);
+        if (lowResBitmap == null) {
+            return new ColorInfo(new WallpaperColors(Color.valueOf(Color.TRANSPARENT), null, null),
+                    Color.TRANSPARENT);
+        }
+        WallpaperColors colors = WallpaperColors.fromBitmap(lowResBitmap);
+        if (request.mWallpaperId != null) {
+            mStore.put(request.mWallpaperId, colors);
+        }
+        return new ColorInfo(colors);
+    }
+
+    private static final class Request {
+        @Nullable
+        private final String mWallpaperId;
+        private final WallpaperInfo mWallpaper;
+        private final CompletableFuture<ColorInfo> mFuture = new CompletableFuture<>();
+
+        Request(@Nullable String wallpaperId, WallpaperInfo wallpaper) {
+            mWallpaperId = wallpaperId;
+            mWallpaper = wallpaper;
+        }
+    }
+}
@@ -23,7 +23,6 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
-import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
@@ -50,11 +49,11 @@ import com.android.wallpaper.module.BitmapCropper.Callback;
 import com.android.wallpaper.util.BitmapTransformer;
 import com.android.wallpaper.util.DisplayUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
+import com.android.wallpaper.util.WallpaperColorQuantizer;
 import com.android.wallpaper.util.WallpaperCropUtils;
+import com.android.wallpaper.util.WallpaperFingerprints;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -65,8 +64,10 @@ import java.util.List;
  */
 public class DefaultWallpaperPersister implements WallpaperPersister {
 
+    private static final CompressFormat DEFAULT_COMPRESS_FORMAT = CompressFormat.PNG;
     private static final int DEFAULT_COMPRESS_QUALITY = 100;
     private static final String TAG = "WallpaperPersister";
+    private static final String ENCODER_THREAD_NAME = "WallpaperEncoder";
 
     private final Context mAppContext; // The application's context.
     // Context that accesses files in device protected storage
@@ -75,12 +76,27 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     private final WallpaperPreferences mWallpaperPreferences;
     private final WallpaperChangedNotifier mWallpaperChangedNotifier;
     private final DisplayUtils mDisplayUtils;
+    private final CompressFormat mCompressFormat;
+    private final int mCompressQuality;
 
     private WallpaperInfo mWallpaperInfoInPreview;
 
-    @SuppressLint("ServiceCast")
     public DefaultWallpaperPersister(Context context) {
+        this(context, DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY);
+    }
+
+    /**
+     * @param compressFormat  Format in which wallpaper bitmaps are encoded when they are set to the
+     *                        WallpaperManager, for example lossless WebP or JPEG instead of the
+     *                        default PNG.
+     * @param compressQuality Quality hint passed to {@link Bitmap#compress} along with the format.
+     */
+    @SuppressLint("ServiceCast")
+    public DefaultWallpaperPersister(Context context, CompressFormat compressFormat,
+            int compressQuality) {
         mAppContext = context.getApplicationContext();
+        mCompressFormat = compressFormat;
+        mCompressQuality = compressQuality;
         // Retrieve WallpaperManager using Context#getSystemService instead of
         // WallpaperManager#getInstance so it can be mocked out in test.
         Injector injector = InjectorProvider.getInjector();
@@ -383,9 +399,17 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             int actionIconRes,
             String collectionId,
             int wallpaperId) {
-        mWallpaperPreferences.clearHomeWallpaperMetadata();
-
         boolean isLockWallpaperSet = isSeparateLockScreenWallpaperSet();
+        mWallpaperPreferences.runInBatch(() -> writeStaticWallpaperMetadata(attributions,
+                actionUrl, actionLabelRes, actionIconRes, collectionId, wallpaperId,
+                isLockWallpaperSet));
+        return true;
+    }
+
+    private void writeStaticWallpaperMetadata(List<String> attributions, String actionUrl,
+            int actionLabelRes, int actionIconRes, String collectionId, int wallpaperId,
+            boolean isLockWallpaperSet) {
+        mWallpaperPreferences.clearHomeWallpaperMetadata();
 
         // Persist wallpaper IDs if the rotating wallpaper component
         mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
@@ -414,8 +438,6 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             mWallpaperPreferences.setLockWallpaperActionIconRes(actionIconRes);
             mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
         }
-
-        return true;
     }
 
     /**
@@ -469,7 +491,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
         if (wallpaperId > 0) {
             mWallpaperPreferences.storeLatestHomeWallpaper(String.valueOf(wallpaperId),
                     attributions, actionUrl, collectionId, wallpaperBitmap,
-                    WallpaperColors.fromBitmap(wallpaperBitmap));
+                    WallpaperColorQuantizer.extract(wallpaperBitmap, "rotation"));
         }
         return wallpaperId;
     }
@@ -488,32 +510,78 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public int setBitmapToWallpaperManagerCompat(Bitmap wallpaperBitmap, boolean allowBackup,
             int whichWallpaper) {
-        ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
-        if (wallpaperBitmap.compress(CompressFormat.PNG, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-            try {
-                byte[] outByteArray = tmpOut.toByteArray();
+        ParcelFileDescriptor[] pipe = null;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            Log.e(TAG, "unable to create pipe to stream wallpaper", e);
+        }
+
+        if (pipe != null) {
+            // Encode on another thread straight into the pipe while the WallpaperManager reads
+            // from it, so that the encoded wallpaper is never held in memory as a whole.
+            ParcelFileDescriptor writeSide = pipe[1];
+            Thread encoderThread = new Thread(
+                    () -> compressToPipe(wallpaperBitmap, writeSide), ENCODER_THREAD_NAME);
+            encoderThread.start();
+            try (InputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0])) {
                 return mWallpaperManagerCompat.setStream(
-                        new ByteArrayInputStream(outByteArray),
+                        inputStream,
                         null /* visibleCropHint */,
                         allowBackup,
                         whichWallpaper);
             } catch (IOException e) {
-                Log.e(TAG, "unable to write stream to wallpaper manager");
-                return 0;
+                Log.e(TAG, "unable to write stream to wallpaper manager", e);
+            } finally {
+                // The caller may recycle the bitmap as soon as this method returns.
+                joinUninterruptibly(encoderThread);
             }
-        } else {
-            Log.e(TAG, "unable to compress wallpaper");
+        }
+
+        try {
+            return mWallpaperManagerCompat.setBitmap(
+                    wallpaperBitmap,
+                    null /* visibleCropHint */,
+                    allowBackup,
+                    whichWallpaper);
+        } catch (IOException e) {
+            Log.e(TAG, "unable to set wallpaper");
+            return 0;
+        }
+    }
+
+    /**
+     * Compresses the given bitmap into the write side of a reliable pipe, and closes it with an
+     * error if compression fails so that the reader doesn't take a truncated image for a complete
+     * one.
+     */
+    private void compressToPipe(Bitmap wallpaperBitmap, ParcelFileDescriptor writeSide) {
+        try {
+            // The stream doesn't own the descriptor, which is closed below to report the result.
+            FileOutputStream outputStream = new FileOutputStream(writeSide.getFileDescriptor());
+            if (wallpaperBitmap.compress(mCompressFormat, mCompressQuality, outputStream)) {
+                writeSide.close();
+            } else {
+                writeSide.closeWithError("unable to compress wallpaper");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "unable to close pipe used to stream wallpaper", e);
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
             try {
-                return mWallpaperManagerCompat.setBitmap(
-                        wallpaperBitmap,
-                        null /* visibleCropHint */,
-                        allowBackup,
-                        whichWallpaper);
-            } catch (IOException e) {
-                Log.e(TAG, "unable to set wallpaper");
-                return 0;
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private int setStreamToWallpaperManagerCompat(InputStream inputStream, boolean allowBackup,
@@ -576,6 +644,10 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
      * Sets the live wallpaper's metadata on SharedPreferences.
      */
     private void setLiveWallpaperMetadata() {
+        mWallpaperPreferences.runInBatch(this::writeLiveWallpaperMetadata);
+    }
+
+    private void writeLiveWallpaperMetadata() {
         android.app.WallpaperInfo previewedWallpaperComponent =
                 mWallpaperInfoInPreview.getWallpaperComponent();
 
@@ -698,14 +770,16 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
 
             if (wallpaperId > 0) {
-                if (mDestination == DEST_HOME_SCREEN
-                        && mWallpaperPreferences.getWallpaperPresentationMode()
-                        == WallpaperPreferences.PRESENTATION_MODE_ROTATING
-                        && !wasLockWallpaperSet
-                        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    copyRotatingWallpaperToLock();
-                }
-                setImageWallpaperMetadata(mDestination, wallpaperId);
+                mWallpaperPreferences.runInBatch(() -> {
+                    if (mDestination == DEST_HOME_SCREEN
+                            && mWallpaperPreferences.getWallpaperPresentationMode()
+                            == WallpaperPreferences.PRESENTATION_MODE_ROTATING
+                            && !wasLockWallpaperSet
+                            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                        copyRotatingWallpaperToLock();
+                    }
+                    setImageWallpaperMetadata(mDestination, wallpaperId);
+                });
                 return true;
             } else {
                 return false;
@@ -797,17 +871,24 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 mWallpaperPreferences.setHomeWallpaperManagerId(homeWallpaperId);
             }
 
-            // Compute bitmap hash code after setting the wallpaper because JPEG compression has
-            // likely changed many pixels' color values. Forget the previously loaded wallpaper
-            // bitmap so that WallpaperManager doesn't return the old wallpaper drawable. Do this
-            // on N+ devices in addition to saving the wallpaper ID for the purpose of backup &
-            // restore.
+            // Fingerprint the wallpaper file after setting the wallpaper because it holds the
+            // image as encoded by WallpaperManager. Forget the previously loaded wallpaper bitmap
+            // so that WallpaperManager doesn't return the old wallpaper drawable. Do this on N+
+            // devices in addition to saving the wallpaper ID for the purpose of backup & restore.
             mWallpaperManager.forgetLoadedWallpaper();
             mBitmap = ((BitmapDrawable) mWallpaperManagerCompat.getDrawable()).getBitmap();
-            long bitmapHash = BitmapUtils.generateHashCode(mBitmap);
-            WallpaperColors colors = WallpaperColors.fromBitmap(mBitmap);
-
-            mWallpaperPreferences.setHomeWallpaperHashCode(bitmapHash);
+            long fingerprint = WallpaperFingerprints.get(mWallpaperManagerCompat,
+                    WallpaperManagerCompat.FLAG_SYSTEM);
+            WallpaperColors colors = WallpaperColorQuantizer.extract(mBitmap, "apply");
+
+            // Fall back to the legacy hash code of the bitmap if the wallpaper file can't be read,
+            // such as on pre-N devices.
+            if (fingerprint != 0) {
+                mWallpaperPreferences.setHomeWallpaperFingerprint(fingerprint);
+            } else {
+                mWallpaperPreferences.setHomeWallpaperHashCode(
+                        BitmapUtils.generateHashCode(mBitmap));
+            }
 
             mWallpaperPreferences.setHomeWallpaperAttributions(
                     mWallpaper.getAttributions(mAppContext));
@@ -821,7 +902,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                     mWallpaper.getCollectionId(mAppContext));
             mWallpaperPreferences.setHomeWallpaperRemoteId(mWallpaper.getWallpaperId());
             mWallpaperPreferences.storeLatestHomeWallpaper(
-                    TextUtils.isEmpty(mWallpaper.getWallpaperId()) ? String.valueOf(bitmapHash)
+                    TextUtils.isEmpty(mWallpaper.getWallpaperId()) ? String.valueOf(fingerprint)
                             : mWallpaper.getWallpaperId(),
                     mWallpaper, mBitmap, colors);
         }
@@ -839,45 +920,14 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                     mWallpaper.getCollectionId(mAppContext));
             mWallpaperPreferences.setLockWallpaperRemoteId(mWallpaper.getWallpaperId());
 
-            // Save the lock wallpaper image's hash code as well for the sake of backup & restore
+            // Save the lock wallpaper image's fingerprint as well for the sake of backup & restore
             // because WallpaperManager-generated IDs are specific to a physical device and
             // cannot be  used to identify a wallpaper image on another device after restore is
             // complete.
-            saveLockWallpaperHashCode();
-        }
-
-        private void saveLockWallpaperHashCode() {
-            Bitmap lockBitmap = null;
-
-            ParcelFileDescriptor parcelFd = mWallpaperManagerCompat.getWallpaperFile(
+            long fingerprint = WallpaperFingerprints.get(mWallpaperManagerCompat,
                     WallpaperManagerCompat.FLAG_LOCK);
-
-            if (parcelFd == null) {
-                return;
-            }
-
-            InputStream fileStream = null;
-            try {
-                fileStream = new FileInputStream(parcelFd.getFileDescriptor());
-                lockBitmap = BitmapFactory.decodeStream(fileStream);
-                parcelFd.close();
-            } catch (IOException e) {
-                Log.e(TAG, "IO exception when closing the file descriptor.");
-            } finally {
-                if (fileStream != null) {
-                    try {
-                        fileStream.close();
-                    } catch (IOException e) {
-                        Log.e(TAG,
-                                "IO exception when closing the input stream for the lock screen "
-                                        + "WP.");
-                    }
-                }
-            }
-
-            if (lockBitmap != null) {
-                long bitmapHash = BitmapUtils.generateHashCode(lockBitmap);
-                mWallpaperPreferences.setLockWallpaperHashCode(bitmapHash);
+            if (fingerprint != 0) {
+                mWallpaperPreferences.setLockWallpaperFingerprint(fingerprint);
             }
         }
     }
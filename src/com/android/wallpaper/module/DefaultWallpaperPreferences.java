@@ -20,7 +20,6 @@ import android.app.backup.BackupManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.graphics.Color;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -35,12 +34,12 @@ import org.json.JSONException;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -51,18 +50,30 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
     public static final String NO_BACKUP_PREFS_NAME = "wallpaper-nobackup";
 
     private static final String TAG = "DefaultWPPreferences";
+    private static final String DAILY_ROTATION_HISTORY_FILE_NAME = "daily_rotation_history";
+    private static final String WALLPAPER_COLORS_FILE_NAME = "wallpaper_colors";
 
     protected SharedPreferences mSharedPrefs;
     protected SharedPreferences mNoBackupPrefs;
     protected Context mContext;
 
+    private final BatchingSharedPreferences mBatchingSharedPrefs;
+    private final BatchingSharedPreferences mBatchingNoBackupPrefs;
+
+    private DailyRotationHistory mDailyRotationHistory;
+    private WallpaperColorsStore mWallpaperColorsStore;
+
     // Keep a strong reference to this OnSharedPreferenceChangeListener to prevent the listener from
     // being garbage collected because SharedPreferences only holds a weak reference.
     private OnSharedPreferenceChangeListener mSharedPrefsChangedListener;
 
     public DefaultWallpaperPreferences(Context context) {
-        mSharedPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        mNoBackupPrefs = context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE);
+        mBatchingSharedPrefs = new BatchingSharedPreferences(
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        mBatchingNoBackupPrefs = new BatchingSharedPreferences(
+                context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE));
+        mSharedPrefs = mBatchingSharedPrefs;
+        mNoBackupPrefs = mBatchingNoBackupPrefs;
         if (mNoBackupPrefs.getAll().isEmpty() && !mSharedPrefs.getAll().isEmpty()) {
             upgradePrefs();
         }
@@ -308,6 +319,19 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
                 WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode).apply();
     }
 
+    @Override
+    public long getHomeWallpaperFingerprint() {
+        return mSharedPrefs.getLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_FINGERPRINT, 0);
+    }
+
+    @Override
+    public void setHomeWallpaperFingerprint(long fingerprint) {
+        mSharedPrefs.edit()
+                .putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_FINGERPRINT, fingerprint)
+                .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE)
+                .apply();
+    }
+
     @Override
     public void clearHomeWallpaperMetadata() {
         String homeWallpaperBackingFileName = getHomeWallpaperBackingFileName();
@@ -517,6 +541,19 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
                 .apply();
     }
 
+    @Override
+    public long getLockWallpaperFingerprint() {
+        return mSharedPrefs.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_FINGERPRINT, 0);
+    }
+
+    @Override
+    public void setLockWallpaperFingerprint(long fingerprint) {
+        mSharedPrefs.edit()
+                .putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_FINGERPRINT, fingerprint)
+                .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE)
+                .apply();
+    }
+
     @Override
     public void clearLockWallpaperMetadata() {
         String lockWallpaperBackingFileName = getLockWallpaperBackingFileName();
@@ -543,38 +580,12 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
 
     @Override
     public void addDailyRotation(long timestamp) {
-        String jsonString = mNoBackupPrefs.getString(
-                NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]");
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-            jsonArray.put(timestamp);
-
-            mNoBackupPrefs.edit()
-                    .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS,
-                            jsonArray.toString())
-                    .apply();
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to add a daily rotation timestamp due to a JSON parse exception");
-        }
+        getDailyRotationHistory().append(timestamp);
     }
 
     @Override
     public long getLastDailyRotationTimestamp() {
-        String jsonString = mNoBackupPrefs.getString(
-                NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]");
-
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-
-            if (jsonArray.length() == 0) {
-                return -1;
-            }
-
-            return jsonArray.getLong(jsonArray.length() - 1);
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to find a daily rotation timestamp due to a JSON parse exception");
-            return -1;
-        }
+        return getDailyRotationHistory().getLast();
     }
 
     @Override
@@ -593,32 +604,8 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
             return null;
         }
 
-        List<Long> timestamps = new ArrayList<>();
-        String jsonString = mNoBackupPrefs.getString(
-                NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]");
-
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-
-            // Before recording the new daily rotation timestamp, filter out any that are older than
-            // 1 week old.
-            for (int i = 0; i < jsonArray.length(); i++) {
-                long existingTimestamp = jsonArray.getLong(i);
-                if (existingTimestamp >= oneWeekAgoTimestamp) {
-                    timestamps.add(existingTimestamp);
-                }
-            }
-
-            jsonArray = new JSONArray(timestamps);
-            mNoBackupPrefs.edit()
-                    .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS,
-                            jsonArray.toString())
-                    .apply();
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to get daily rotation timestamps due to a JSON parse exception");
-        }
-
-        return timestamps;
+        // Older timestamps are expired by the history as new ones are added.
+        return getDailyRotationHistory().query(oneWeekAgoTimestamp, Long.MAX_VALUE);
     }
 
     @Nullable
@@ -645,27 +632,8 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
             return null;
         }
 
-        List<Long> timestamps = new ArrayList<>();
-        String jsonString = mNoBackupPrefs.getString(
-                NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]");
-
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-
-            // Filter the timestamps (which cover up to one week of data) to only include those
-            // between midnight yesterday and midnight today.
-            for (int i = 0; i < jsonArray.length(); i++) {
-                long timestamp = jsonArray.getLong(i);
-                if (timestamp >= midnightYesterdayTimestamp && timestamp < midnightTodayTimestamp) {
-                    timestamps.add(timestamp);
-                }
-            }
-
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to get daily rotation timestamps due to a JSON parse exception");
-        }
-
-        return timestamps;
+        return getDailyRotationHistory().query(midnightYesterdayTimestamp,
+                midnightTodayTimestamp);
     }
 
     @Override
@@ -684,6 +652,7 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
 
     @Override
     public void clearDailyRotations() {
+        getDailyRotationHistory().clear();
         mNoBackupPrefs.edit()
                 .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
                 .remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP)
@@ -868,39 +837,12 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
 
     @Override
     public void storeWallpaperColors(String storedWallpaperId, WallpaperColors wallpaperColors) {
-        Color primaryColor = wallpaperColors.getPrimaryColor();
-        String value = new String(String.valueOf(primaryColor.toArgb()));
-        Color secondaryColor = wallpaperColors.getSecondaryColor();
-        if (secondaryColor != null) {
-            value += "," + secondaryColor.toArgb();
-        }
-        Color tertiaryColor = wallpaperColors.getTertiaryColor();
-        if (tertiaryColor != null) {
-            value += "," + tertiaryColor.toArgb();
-        }
-        mNoBackupPrefs.edit().putString(
-                NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId, value).apply();
+        getWallpaperColorsStore().put(storedWallpaperId, wallpaperColors);
     }
 
     @Override
     public WallpaperColors getWallpaperColors(String storedWallpaperId) {
-        String value = mNoBackupPrefs.getString(
-                NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId, "");
-        if (value.equals("")) {
-            return null;
-        }
-        String[] colorStrings = value.split(",");
-        Color colorPrimary = Color.valueOf(Integer.parseInt(colorStrings[0]));
-        Color colorSecondary = null;
-        if (colorStrings.length >= 2) {
-            colorSecondary = Color.valueOf(Integer.parseInt(colorStrings[1]));
-        }
-        Color colorTerTiary = null;
-        if (colorStrings.length >= 3) {
-            colorTerTiary = Color.valueOf(Integer.parseInt(colorStrings[2]));
-        }
-        return new WallpaperColors(colorPrimary, colorSecondary, colorTerTiary,
-                WallpaperColors.HINT_FROM_BITMAP);
+        return getWallpaperColorsStore().get(storedWallpaperId);
     }
 
     private void setFirstWallpaperApplyDateSinceSetup(int firstApplyDate) {
@@ -920,6 +862,20 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
         }
     }
 
+    @Override
+    public void runInBatch(Runnable writes) {
+        mBatchingSharedPrefs.beginBatch();
+        mBatchingNoBackupPrefs.beginBatch();
+        boolean success = false;
+        try {
+            writes.run();
+            success = true;
+        } finally {
+            mBatchingNoBackupPrefs.endBatch(success);
+            mBatchingSharedPrefs.endBatch(success);
+        }
+    }
+
     private void setFirstWallpaperApplyDateIfNeeded() {
         if (getFirstWallpaperApplyDateSinceSetup() == 0) {
             setFirstWallpaperApplyDateSinceSetup(getCurrentDate());
@@ -958,6 +914,84 @@ public class DefaultWallpaperPreferences implements WallpaperPreferences {
                 .apply();
     }
 
+    /**
+     * Returns the history of daily rotations, moving the timestamps over from the JSON array
+     * previously stored in the no-backup preferences the first time it is opened.
+     */
+    private synchronized DailyRotationHistory getDailyRotationHistory() {
+        if (mDailyRotationHistory != null) {
+            return mDailyRotationHistory;
+        }
+
+        mDailyRotationHistory = new DailyRotationHistory(
+                new File(mContext.getNoBackupFilesDir(), DAILY_ROTATION_HISTORY_FILE_NAME));
+        String jsonString = mNoBackupPrefs.getString(
+                NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, null);
+        if (jsonString != null) {
+            if (!mDailyRotationHistory.exists()) {
+                try {
+                    JSONArray jsonArray = new JSONArray(jsonString);
+                    for (int i = 0; i < jsonArray.length(); i++) {
+                        mDailyRotationHistory.append(jsonArray.getLong(i));
+                    }
+                } catch (JSONException e) {
+                    Log.e(TAG, "Failed to migrate daily rotation timestamps due to a JSON parse "
+                            + "exception");
+                }
+            }
+            mNoBackupPrefs.edit()
+                    .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
+                    .apply();
+        }
+        return mDailyRotationHistory;
+    }
+
+    /**
+     * Returns the store of previewed wallpaper colors, moving over the colors previously stored
+     * as comma separated strings in the no-backup preferences the first time it is opened.
+     */
+    private synchronized WallpaperColorsStore getWallpaperColorsStore() {
+        if (mWallpaperColorsStore != null) {
+            return mWallpaperColorsStore;
+        }
+
+        mWallpaperColorsStore = new WallpaperColorsStore(
+                new File(mContext.getNoBackupFilesDir(), WALLPAPER_COLORS_FILE_NAME));
+        boolean migrate = !mWallpaperColorsStore.exists();
+        boolean migrated = false;
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> entry : mNoBackupPrefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID)) {
+                continue;
+            }
+            if (migrate && entry.getValue() instanceof String) {
+                try {
+                    String[] colorStrings = ((String) entry.getValue()).split(",");
+                    mWallpaperColorsStore.put(
+                            key.substring(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID.length()),
+                            Integer.parseInt(colorStrings[0]),
+                            colorStrings.length >= 2 ? Integer.valueOf(colorStrings[1]) : null,
+                            colorStrings.length >= 3 ? Integer.valueOf(colorStrings[2]) : null,
+                            WallpaperColors.HINT_FROM_BITMAP);
+                    migrated = true;
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Dropping malformed wallpaper colors: " + key);
+                }
+            }
+            if (editor == null) {
+                editor = mNoBackupPrefs.edit();
+            }
+            editor.remove(key);
+        }
+        // Only drop the legacy entries once the store holding them is written, otherwise they're
+        // migrated again next time.
+        if (editor != null && (!migrated || mWallpaperColorsStore.writeNow())) {
+            editor.apply();
+        }
+        return mWallpaperColorsStore;
+    }
+
     private int getCurrentDate() {
         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
         SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
@@ -30,6 +30,8 @@ import com.android.wallpaper.R;
 import com.android.wallpaper.asset.BitmapUtils;
 import com.android.wallpaper.compat.WallpaperManagerCompat;
 import com.android.wallpaper.model.WallpaperMetadata;
+import com.android.wallpaper.monitor.PerformanceMonitor;
+import com.android.wallpaper.util.WallpaperFingerprints;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -46,10 +48,19 @@ import java.util.List;
 public class DefaultWallpaperRefresher implements WallpaperRefresher {
     private static final String TAG = "DefaultWPRefresher";
 
+    /**
+     * Signals checking whether saved image wallpaper metadata is current, from the cheapest to the
+     * most expensive, as reported to the {@link PerformanceMonitor}.
+     */
+    private static final String SIGNAL_WALLPAPER_ID = "wallpaper_id";
+    private static final String SIGNAL_FINGERPRINT = "fingerprint";
+    private static final String SIGNAL_LEGACY_HASH_CODE = "legacy_hash_code";
+
     private final Context mAppContext;
     private final WallpaperPreferences mWallpaperPreferences;
     private final WallpaperManager mWallpaperManager;
     private final WallpaperStatusChecker mWallpaperStatusChecker;
+    private final PerformanceMonitor mPerformanceMonitor;
 
     /**
      * @param context The application's context.
@@ -60,6 +71,7 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
         Injector injector = InjectorProvider.getInjector();
         mWallpaperPreferences = injector.getPreferences(mAppContext);
         mWallpaperStatusChecker = injector.getWallpaperStatusChecker();
+        mPerformanceMonitor = injector.getPerformanceMonitor();
 
         // Retrieve WallpaperManager using Context#getSystemService instead of
         // WallpaperManager#getInstance so it can be mocked out in test.
@@ -82,6 +94,8 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
 
         private long mCurrentHomeWallpaperHashCode;
         private long mCurrentLockWallpaperHashCode;
+        private long mCurrentHomeWallpaperFingerprint;
+        private long mCurrentLockWallpaperFingerprint;
         private String mSystemWallpaperPackageName;
 
         @SuppressLint("ServiceCast")
@@ -96,8 +110,10 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
             List<WallpaperMetadata> wallpaperMetadatas = new ArrayList<>();
 
             if (!isHomeScreenMetadataCurrent() || isHomeScreenAttributionsEmpty()) {
-                mWallpaperPreferences.clearHomeWallpaperMetadata();
-                setFallbackHomeScreenWallpaperMetadata();
+                mWallpaperPreferences.runInBatch(() -> {
+                    mWallpaperPreferences.clearHomeWallpaperMetadata();
+                    setFallbackHomeScreenWallpaperMetadata();
+                });
             }
 
             boolean isLockScreenWallpaperCurrentlySet = mWallpaperStatusChecker.isLockWallpaperSet(
@@ -119,8 +135,10 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
             }
 
             if (!isLockScreenMetadataCurrent() || isLockScreenAttributionsEmpty()) {
-                mWallpaperPreferences.clearLockWallpaperMetadata();
-                setFallbackLockScreenWallpaperMetadata();
+                mWallpaperPreferences.runInBatch(() -> {
+                    mWallpaperPreferences.clearLockWallpaperMetadata();
+                    setFallbackLockScreenWallpaperMetadata();
+                });
             }
 
             wallpaperMetadatas.add(new WallpaperMetadata(
@@ -215,6 +233,26 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
                     && homeScreenAttributions.get(2) == null;
         }
 
+        private long getCurrentHomeWallpaperFingerprint() {
+            if (mCurrentHomeWallpaperFingerprint == 0) {
+                mCurrentHomeWallpaperFingerprint = WallpaperFingerprints.get(
+                        mWallpaperManagerCompat, WallpaperManagerCompat.FLAG_SYSTEM);
+            }
+            return mCurrentHomeWallpaperFingerprint;
+        }
+
+        private long getCurrentLockWallpaperFingerprint() {
+            if (mCurrentLockWallpaperFingerprint == 0) {
+                mCurrentLockWallpaperFingerprint = WallpaperFingerprints.get(
+                        mWallpaperManagerCompat, WallpaperManagerCompat.FLAG_LOCK);
+            }
+            return mCurrentLockWallpaperFingerprint;
+        }
+
+        /**
+         * Returns the legacy hash code of the home wallpaper, which requires decoding it. Only
+         * needed before N, or to migrate a hash code saved by an older version of the app.
+         */
         private long getCurrentHomeWallpaperHashCode() {
             if (mCurrentHomeWallpaperHashCode == 0) {
                     BitmapDrawable wallpaperDrawable = (BitmapDrawable) mWallpaperManagerCompat.getDrawable();
@@ -228,6 +266,10 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
             return mCurrentHomeWallpaperHashCode;
         }
 
+        /**
+         * Returns the legacy hash code of the lock screen wallpaper, which requires decoding it.
+         * Only needed to migrate a hash code saved by an older version of the app.
+         */
         private long getCurrentLockWallpaperHashCode() {
             if (mCurrentLockWallpaperHashCode == 0
                     && mWallpaperStatusChecker.isLockWallpaperSet(mAppContext)) {
@@ -276,17 +318,46 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
          * WallpaperPreferences.
          */
         private boolean isHomeScreenImageWallpaperCurrent() {
+            long savedFingerprint = mWallpaperPreferences.getHomeWallpaperFingerprint();
             long savedBitmapHash = mWallpaperPreferences.getHomeWallpaperHashCode();
 
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                return savedBitmapHash == getCurrentHomeWallpaperHashCode();
+            }
+
+            // WallpaperManager assigns a new ID every time a wallpaper is set, so the same ID means
+            // the same wallpaper without reading it. IDs are local to the device though, so none
+            // is saved after a restore.
+            int savedWallpaperId = mWallpaperPreferences.getHomeWallpaperManagerId();
+            int wallpaperId = mWallpaperManagerCompat.getWallpaperId(
+                    WallpaperManagerCompat.FLAG_SYSTEM);
+            if (savedWallpaperId != 0 && savedWallpaperId == wallpaperId) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_WALLPAPER_ID);
+                return true;
+            }
+
+            if (savedFingerprint != 0) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_FINGERPRINT);
+                return savedFingerprint == getCurrentHomeWallpaperFingerprint();
+            }
+
             // Use WallpaperManager IDs to check same-ness of image wallpaper on N+ versions of Android
             // only when there is no saved bitmap hash code (which could be leftover from a previous build
             // of the app that did not use wallpaper IDs).
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && savedBitmapHash == 0) {
-                return mWallpaperPreferences.getHomeWallpaperManagerId()
-                        == mWallpaperManagerCompat.getWallpaperId(WallpaperManagerCompat.FLAG_SYSTEM);
+            if (savedBitmapHash == 0) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_WALLPAPER_ID);
+                return savedWallpaperId == wallpaperId;
             }
 
-            return savedBitmapHash == getCurrentHomeWallpaperHashCode();
+            // Decode the wallpaper only once to check the hash code saved by an older version of
+            // the app, then replace it with the fingerprint of the same wallpaper.
+            mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_LEGACY_HASH_CODE);
+            boolean isCurrent = savedBitmapHash == getCurrentHomeWallpaperHashCode();
+            long fingerprint = getCurrentHomeWallpaperFingerprint();
+            if (isCurrent && fingerprint != 0) {
+                mWallpaperPreferences.setHomeWallpaperFingerprint(fingerprint);
+            }
+            return isCurrent;
         }
 
         /**
@@ -304,15 +375,40 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
          * current lock screen wallpaper.
          */
         private boolean isLockScreenMetadataCurrent() {
+            // Same wallpaper ID, same wallpaper; see isHomeScreenImageWallpaperCurrent().
+            int savedLockWallpaperId = mWallpaperPreferences.getLockWallpaperId();
+            int lockWallpaperId = mWallpaperManagerCompat.getWallpaperId(
+                    WallpaperManagerCompat.FLAG_LOCK);
+            if (savedLockWallpaperId != 0 && savedLockWallpaperId == lockWallpaperId) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_WALLPAPER_ID);
+                return true;
+            }
+
+            long savedLockWallpaperFingerprint =
+                    mWallpaperPreferences.getLockWallpaperFingerprint();
+            if (savedLockWallpaperFingerprint != 0) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_FINGERPRINT);
+                return savedLockWallpaperFingerprint == getCurrentLockWallpaperFingerprint();
+            }
+
             // Check for lock wallpaper image same-ness only when there is no stored lock wallpaper hash
             // code. Otherwise if there is a lock wallpaper hash code stored in
             // {@link WallpaperPreferences}, then check hash codes.
             long savedLockWallpaperHash = mWallpaperPreferences.getLockWallpaperHashCode();
+            if (savedLockWallpaperHash == 0) {
+                mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_WALLPAPER_ID);
+                return savedLockWallpaperId == lockWallpaperId;
+            }
 
-            return (savedLockWallpaperHash == 0)
-                    ? mWallpaperPreferences.getLockWallpaperId()
-                    == mWallpaperManagerCompat.getWallpaperId(WallpaperManagerCompat.FLAG_LOCK)
-                    : savedLockWallpaperHash == getCurrentLockWallpaperHashCode();
+            // Decode the wallpaper only once to check the hash code saved by an older version of
+            // the app, then replace it with the fingerprint of the same wallpaper.
+            mPerformanceMonitor.recordWallpaperStalenessCheck(SIGNAL_LEGACY_HASH_CODE);
+            boolean isCurrent = savedLockWallpaperHash == getCurrentLockWallpaperHashCode();
+            long fingerprint = getCurrentLockWallpaperFingerprint();
+            if (isCurrent && fingerprint != 0) {
+                mWallpaperPreferences.setLockWallpaperFingerprint(fingerprint);
+            }
+            return isCurrent;
         }
 
         /**
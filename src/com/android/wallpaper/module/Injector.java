@@ -46,6 +46,8 @@ public interface Injector {
 
     CurrentWallpaperInfoFactory getCurrentWallpaperFactory(Context context);
 
+    DecodeScheduler getDecodeScheduler();
+
     ExploreIntentChecker getExploreIntentChecker(Context context);
 
     LoggingOptInStatusProvider getLoggingOptInStatusProvider(Context context);
@@ -62,6 +64,8 @@ public interface Injector {
 
     UserEventLogger getUserEventLogger(Context context);
 
+    WallpaperColorExtractor getWallpaperColorExtractor(Context context);
+
     WallpaperManagerCompat getWallpaperManagerCompat(Context context);
 
     WallpaperStatusChecker getWallpaperStatusChecker();
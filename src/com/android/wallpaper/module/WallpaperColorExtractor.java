@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import androidx.annotation.IntDef;
+
+import com.android.wallpaper.model.WallpaperInfo;
+import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for the service extracting the colors of wallpaper thumbnails in the background.
+ */
+public interface WallpaperColorExtractor {
+
+    /** Colors needed right away, for example to theme a preview. */
+    int PRIORITY_IMMEDIATE = 0;
+    /**
+     * Colors of a tile bound in a grid. Tiles bound last are extracted first, and extractions
+     * which fall too far behind may be dropped since their tiles have likely scrolled away.
+     */
+    int PRIORITY_TILE = 1;
+
+    /**
+     * Extracts the colors of the given wallpaper's thumbnail. Requests for a wallpaper whose
+     * colors are already being extracted share that extraction.
+     *
+     * @return a future completed with the extracted colors, which hold a transparent placeholder
+     * color if no thumbnail was available, or cancelled if the extraction was dropped.
+     */
+    CompletableFuture<ColorInfo> extract(WallpaperInfo wallpaper, @Priority int priority);
+
+    /**
+     * Priorities of extraction requests, in decreasing order.
+     */
+    @IntDef({
+            PRIORITY_IMMEDIATE,
+            PRIORITY_TILE})
+    @interface Priority {
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.app.WallpaperColors;
+import android.graphics.Color;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded store of the {@link WallpaperColors} extracted from previewed wallpapers, keyed by
+ * wallpaper ID.
+ *
+ * <p>Colors are kept as packed ARGB triples and color hints in an access ordered in-memory index,
+ * which evicts the least recently used wallpaper once its maximum number of entries is reached.
+ * The index lives in its own file, read once on first access and rewritten in the background after
+ * each change, in the same spirit as {@link android.content.SharedPreferences.Editor#apply()}.
+ */
+class WallpaperColorsStore {
+    private static final String TAG = "WallpaperColorsStore";
+    private static final int VERSION = 2;
+    private static final int DEFAULT_MAX_ENTRIES = 128;
+    private static final long WRITE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    // Writes are made in order on a single thread, which stops when idle.
+    private static final ThreadPoolExecutor sWriteExecutor = createWriteExecutor();
+
+    private final AtomicFile mFile;
+    // Serializes writes of the file, which writeNow() can make alongside the background ones.
+    // Taken before the lock of the store.
+    private final Object mFileLock = new Object();
+    private final LinkedHashMap<String, Entry> mEntries;
+    private boolean mLoaded;
+    private boolean mWritePending;
+
+    WallpaperColorsStore(File file) {
+        this(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    WallpaperColorsStore(File file, int maxEntries) {
+        mFile = new AtomicFile(file);
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the store file exists, even if empty.
+     */
+    boolean exists() {
+        return mFile.getBaseFile().exists();
+    }
+
+    /**
+     * Stores the colors of the given wallpaper, evicting the least recently used one if needed.
+     */
+    void put(String wallpaperId, WallpaperColors colors) {
+        put(wallpaperId, colors.getPrimaryColor().toArgb(),
+                colors.getSecondaryColor() != null ? colors.getSecondaryColor().toArgb() : null,
+                colors.getTertiaryColor() != null ? colors.getTertiaryColor().toArgb() : null,
+                colors.getColorHints());
+    }
+
+    /**
+     * Stores the given ARGB colors and color hints of the given wallpaper, evicting the least
+     * recently used one if needed.
+     */
+    synchronized void put(String wallpaperId, int primary, @Nullable Integer secondary,
+            @Nullable Integer tertiary, int colorHints) {
+        load();
+        int colorCount = tertiary != null ? 3 : secondary != null ? 2 : 1;
+        mEntries.put(wallpaperId, new Entry(colorCount, primary,
+                secondary != null ? secondary : 0, tertiary != null ? tertiary : 0, colorHints));
+        scheduleWrite();
+    }
+
+    /**
+     * Returns the colors stored for the given wallpaper, or null if there are none.
+     */
+    @Nullable
+    synchronized WallpaperColors get(String wallpaperId) {
+        load();
+        return toColors(mEntries.get(wallpaperId));
+    }
+
+    /**
+     * Returns the colors stored for the given wallpaper if the store file was already read, or
+     * null if there are none or the file is yet to be read.
+     */
+    @Nullable
+    synchronized WallpaperColors getIfLoaded(String wallpaperId) {
+        return mLoaded ? toColors(mEntries.get(wallpaperId)) : null;
+    }
+
+    /**
+     * Reads the store file if it wasn't already, so that {@link #getIfLoaded} can find its colors.
+     */
+    synchronized void preload() {
+        load();
+    }
+
+    /**
+     * Writes the store file right away on the calling thread, such as before dropping the data it
+     * was migrated from.
+     *
+     * @return Whether the file was written.
+     */
+    boolean writeNow() {
+        return write();
+    }
+
+    private void scheduleWrite() {
+        if (mWritePending) {
+            return;
+        }
+        mWritePending = true;
+        sWriteExecutor.execute(this::write);
+    }
+
+    private boolean write() {
+        // Taking the snapshot under the file lock keeps an older snapshot from being written over
+        // a newer one.
+        synchronized (mFileLock) {
+            byte[] bytes;
+            synchronized (this) {
+                mWritePending = false;
+                try {
+                    bytes = serialize();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to serialize wallpaper colors", e);
+                    return false;
+                }
+            }
+
+            FileOutputStream outputStream = null;
+            try {
+                outputStream = mFile.startWrite();
+                outputStream.write(bytes);
+                mFile.finishWrite(outputStream);
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write wallpaper colors", e);
+                mFile.failWrite(outputStream);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Serializes the entries from least to most recently used, so that reading them back in order
+     * restores the eviction order.
+     */
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeByte(entry.mColorCount);
+                out.writeInt(entry.mPrimary);
+                out.writeInt(entry.mSecondary);
+                out.writeInt(entry.mTertiary);
+                out.writeInt(entry.mColorHints);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String wallpaperId = in.readUTF();
+                int colorCount = in.readByte();
+                mEntries.put(wallpaperId, new Entry(colorCount, in.readInt(), in.readInt(),
+                        in.readInt(), in.readInt()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read wallpaper colors", e);
+        }
+    }
+
+    @Nullable
+    private static WallpaperColors toColors(@Nullable Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        return new WallpaperColors(Color.valueOf(entry.mPrimary),
+                entry.mColorCount >= 2 ? Color.valueOf(entry.mSecondary) : null,
+                entry.mColorCount >= 3 ? Color.valueOf(entry.mTertiary) : null,
+                entry.mColorHints);
+    }
+
+    private static ThreadPoolExecutor createWriteExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                WRITE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class Entry {
+        private final int mColorCount;
+        private final int mPrimary;
+        private final int mSecondary;
+        private final int mTertiary;
+        private final int mColorHints;
+
+        Entry(int colorCount, int primary, int secondary, int tertiary, int colorHints) {
+            mColorCount = colorCount;
+            mPrimary = primary;
+            mSecondary = secondary;
+            mTertiary = tertiary;
+            mColorHints = colorHints;
+        }
+    }
+}
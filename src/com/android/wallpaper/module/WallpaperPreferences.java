@@ -130,15 +130,27 @@ public interface WallpaperPreferences {
     void clearHomeWallpaperMetadata();
 
     /**
-     * Returns the home wallpaper's bitmap hash code or 0 if there is none.
+     * Returns the home wallpaper's legacy bitmap hash code or 0 if there is none. Only wallpapers
+     * set by older versions of the app have one, newer ones have a fingerprint instead.
      */
     long getHomeWallpaperHashCode();
 
     /**
-     * Sets the home wallpaper's bitmap hash code if it is an individual image.
+     * Sets the home wallpaper's legacy bitmap hash code if it is an individual image.
      */
     void setHomeWallpaperHashCode(long hashCode);
 
+    /**
+     * Returns the fingerprint of the home wallpaper's image file or 0 if there is none.
+     */
+    long getHomeWallpaperFingerprint();
+
+    /**
+     * Sets the fingerprint of the home wallpaper's image file if it is an individual image, which
+     * supersedes its legacy bitmap hash code.
+     */
+    void setHomeWallpaperFingerprint(long fingerprint);
+
     /**
      * Gets the home wallpaper's package name, which is present for live wallpapers.
      */
@@ -252,15 +264,27 @@ public interface WallpaperPreferences {
     void clearLockWallpaperMetadata();
 
     /**
-     * Returns the lock screen wallpaper's bitmap hash code or 0 if there is none.
+     * Returns the lock screen wallpaper's legacy bitmap hash code or 0 if there is none. Only
+     * wallpapers set by older versions of the app have one, newer ones have a fingerprint instead.
      */
     long getLockWallpaperHashCode();
 
     /**
-     * Sets the lock screen wallpaper's bitmap hash code if it is an individual image.
+     * Sets the lock screen wallpaper's legacy bitmap hash code if it is an individual image.
      */
     void setLockWallpaperHashCode(long hashCode);
 
+    /**
+     * Returns the fingerprint of the lock screen wallpaper's image file or 0 if there is none.
+     */
+    long getLockWallpaperFingerprint();
+
+    /**
+     * Sets the fingerprint of the lock screen wallpaper's image file if it is an individual image,
+     * which supersedes its legacy bitmap hash code.
+     */
+    void setLockWallpaperFingerprint(long fingerprint);
+
     /**
      * Gets the lock wallpaper's ID, which is provided by WallpaperManager for static wallpapers.
      */
@@ -580,4 +604,14 @@ public interface WallpaperPreferences {
             @NonNull Bitmap croppedWallpaperBitmap, WallpaperColors colors) {
         // Do nothing in the default case.
     }
+
+    /**
+     * Runs the given writes as a single batch, such as all the home and lock screen metadata of
+     * one set wallpaper operation. Their changes are written together once all of them are done,
+     * so that they cost a single write of the preferences and are never seen half-written by other
+     * threads. Should the writes throw, none of them are made.
+     */
+    default void runInBatch(Runnable writes) {
+        writes.run();
+    }
 }
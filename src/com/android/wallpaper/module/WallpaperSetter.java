@@ -34,6 +34,7 @@ import com.android.wallpaper.picker.SetWallpaperDialogFragment;
 import com.android.wallpaper.picker.SetWallpaperDialogFragment.Listener;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.ThrowableAnalyzer;
+import com.android.wallpaper.util.WallpaperColorQuantizer;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
 import com.bumptech.glide.Glide;
@@ -247,8 +248,8 @@ public class WallpaperSetter {
             }
             mPreferences.storeLatestHomeWallpaper(wallpaper.getWallpaperId(), wallpaper,
                     colors != null ? colors :
-                            WallpaperColors.fromBitmap(wallpaper.getThumbAsset(context)
-                                    .getLowResBitmap(context)));
+                            WallpaperColorQuantizer.extract(wallpaper.getThumbAsset(context)
+                                    .getLowResBitmap(context), "apply_live"));
             // Not call onWallpaperApplied() as no UI is presented.
             if (callback != null) {
                 callback.onSuccess(wallpaper);
@@ -27,4 +27,73 @@ public interface PerformanceMonitor {
      * loaded in a full-window preview.
      */
     void recordFullResPreviewLoadedMemorySnapshot();
+
+    /**
+     * Records how long fetching the categories of the given source took, to find out which source
+     * dominates the time until the categories are shown.
+     *
+     * @param source         Name of the source, for example "live" for live wallpapers.
+     * @param durationMillis Time the source took to provide its categories.
+     */
+    default void recordCategorySourceFetchTime(String source, long durationMillis) {
+    }
+
+    /**
+     * Records which signal settled whether the saved metadata of an image wallpaper is still
+     * current, to find out how often checks have to read or decode the wallpaper itself.
+     *
+     * @param signal Name of the signal, from the cheapest "wallpaper_id" to "fingerprint", which
+     *               hashes the wallpaper file, and "legacy_hash_code", which decodes it.
+     */
+    default void recordWallpaperStalenessCheck(String signal) {
+    }
+
+    /**
+     * Records how well the thumbnails of a grid were prefetched while it was shown, to tune how
+     * far ahead thumbnails are prefetched.
+     *
+     * @param grid         Name of the grid, for example "individual" for the wallpapers of a
+     *                     category.
+     * @param hitCount     Number of bound thumbnails which were loaded from memory.
+     * @param lateHitCount Number of other bound thumbnails whose prefetch was still in flight.
+     * @param missCount    Number of bound thumbnails which were neither in memory nor being
+     *                     prefetched.
+     * @param wastedCount  Number of prefetches cancelled before their thumbnail was bound.
+     */
+    default void recordThumbnailPrefetchStats(String grid, int hitCount, int lateHitCount,
+            int missCount, int wastedCount) {
+    }
+
+    /**
+     * Records how long extracting the colors of a wallpaper image took, to find out which code
+     * paths still spend noticeable time on it.
+     *
+     * @param path           Name of the code path, for example "preview" for the full-screen
+     *                       preview of an image wallpaper.
+     * @param durationMillis Time the extraction took.
+     */
+    default void recordColorExtractionTime(String path, long durationMillis) {
+    }
+
+    /**
+     * Records how long the full-screen preview of an image wallpaper took to show a first,
+     * screen-sized version of the wallpaper since the preview was opened.
+     *
+     * @param tiled          Whether the wallpaper is tiled at full resolution once zoomed in, as
+     *                       opposed to shown from a single bitmap.
+     * @param durationMillis Time until the first frame of the wallpaper was shown.
+     */
+    default void recordPreviewTimeToFirstFrame(boolean tiled, long durationMillis) {
+    }
+
+    /**
+     * Records how long the full-screen preview of an image wallpaper took to show the wallpaper
+     * sharply at its default zoom since the preview was opened.
+     *
+     * @param tiled          Whether the wallpaper is tiled at full resolution once zoomed in, as
+     *                       opposed to shown from a single bitmap.
+     * @param durationMillis Time until the wallpaper was shown sharply.
+     */
+    default void recordPreviewTimeToSharp(boolean tiled, long durationMillis) {
+    }
 }
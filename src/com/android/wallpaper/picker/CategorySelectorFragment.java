@@ -58,6 +58,7 @@ import com.android.wallpaper.util.DeepLinkUtils;
 import com.android.wallpaper.util.DisplayMetricsRetriever;
 import com.android.wallpaper.util.ResourceUtils;
 import com.android.wallpaper.util.SizeCalculator;
+import com.android.wallpaper.widget.GridThumbnailPrefetcher;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate.BottomSheetHost;
 
@@ -125,6 +126,7 @@ public class CategorySelectorFragment extends AppbarFragment {
     private CategoryAdapter mAdapter;
     private ArrayList<Category> mCategories = new ArrayList<>();
     private Point mTileSizePx;
+    private GridThumbnailPrefetcher mThumbnailPrefetcher;
     private boolean mAwaitingCategories;
     private boolean mIsFeaturedCollectionAvailable;
 
@@ -156,6 +158,9 @@ public class CategorySelectorFragment extends AppbarFragment {
                 getNumColumns() * CategorySpanSizeLookup.DEFAULT_CATEGORY_SPAN_SIZE);
         gridLayoutManager.setSpanSizeLookup(new CategorySpanSizeLookup(mAdapter));
         mImageGrid.setLayoutManager(gridLayoutManager);
+        mThumbnailPrefetcher = new GridThumbnailPrefetcher(getContext(), "category",
+                this::getThumbnailAtPosition);
+        mThumbnailPrefetcher.attach(mImageGrid);
         mImageGrid.setAccessibilityDelegateCompat(
                 new WallpaperPickerRecyclerViewAccessibilityDelegate(
                         mImageGrid, (BottomSheetHost) getParentFragment(), getNumColumns()));
@@ -186,6 +191,7 @@ public class CategorySelectorFragment extends AppbarFragment {
 
     @Override
     public void onDestroyView() {
+        mThumbnailPrefetcher.detach();
         getCategorySelectorFragmentHost().cleanUp();
         super.onDestroyView();
     }
@@ -259,6 +265,18 @@ public class CategorySelectorFragment extends AppbarFragment {
         mAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Returns the thumbnail of the category tile at the given adapter position, if any.
+     */
+    @Nullable
+    private Asset getThumbnailAtPosition(int position) {
+        int index = position - NUM_NON_CATEGORY_VIEW_HOLDERS;
+        if (index < 0 || index >= mCategories.size() || getContext() == null) {
+            return null;
+        }
+        return mCategories.get(index).getThumbnail(getContext().getApplicationContext());
+    }
+
     private int getNumColumns() {
         Activity activity = getActivity();
         return activity == null ? 1 : SizeCalculator.getNumCategoryColumns(activity);
@@ -530,7 +548,9 @@ public class CategorySelectorFragment extends AppbarFragment {
                     // Offset position to get category index to account for the non-category view
                     // holders.
                     Category category = mCategories.get(position - NUM_NON_CATEGORY_VIEW_HOLDERS);
-                    ((CategoryHolder) holder).bindCategory(category);
+                    CategoryHolder categoryHolder = (CategoryHolder) holder;
+                    mThumbnailPrefetcher.onBindThumbnail(position, categoryHolder.mImageView);
+                    categoryHolder.bindCategory(category);
                     break;
                 case ITEM_VIEW_TYPE_LOADING_INDICATOR:
                     // No op.
@@ -540,6 +560,14 @@ public class CategorySelectorFragment extends AppbarFragment {
             }
         }
 
+        @Override
+        public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+            super.onViewRecycled(holder);
+            if (holder instanceof CategoryHolder) {
+                Asset.cancelPendingDecode(((CategoryHolder) holder).mImageView);
+            }
+        }
+
         @Override
         public int getItemCount() {
             // Add to size of categories to account for the metadata related views.
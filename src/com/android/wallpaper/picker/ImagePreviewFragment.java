@@ -31,14 +31,14 @@ import android.app.WallpaperColors;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.ColorSpace;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Surface;
@@ -61,9 +61,12 @@ import androidx.fragment.app.FragmentActivity;
 import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.CurrentWallpaperAssetVN;
+import com.android.wallpaper.asset.StreamableAsset;
+import com.android.wallpaper.asset.StreamableAssetRegionDecoder;
 import com.android.wallpaper.model.SetWallpaperViewModel;
 import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
 import com.android.wallpaper.module.BitmapCropper;
+import com.android.wallpaper.module.DecodeScheduler;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.LargeScreenMultiPanesChecker;
@@ -73,6 +76,7 @@ import com.android.wallpaper.util.FullScreenAnimation;
 import com.android.wallpaper.util.ResourceUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.SizeCalculator;
+import com.android.wallpaper.util.WallpaperColorQuantizer;
 import com.android.wallpaper.util.WallpaperCropUtils;
 import com.android.wallpaper.widget.BottomActionBar;
 import com.android.wallpaper.widget.BottomActionBar.AccessibilityCallback;
@@ -83,11 +87,8 @@ import com.bumptech.glide.MemoryCategory;
 import com.davemorrissey.labs.subscaleview.ImageSource;
 import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -99,7 +100,6 @@ public class ImagePreviewFragment extends PreviewFragment {
 
     private static final String TAG = "ImagePreviewFragment";
     private static final float DEFAULT_WALLPAPER_MAX_ZOOM = 8f;
-    private static final Executor sExecutor = Executors.newCachedThreadPool();
 
     private final WallpaperSurfaceCallback mWallpaperSurfaceCallback =
             new WallpaperSurfaceCallback();
@@ -107,6 +107,8 @@ public class ImagePreviewFragment extends PreviewFragment {
     private final AtomicInteger mImageScaleChangeCounter = new AtomicInteger(0);
     private final AtomicInteger mRecalculateColorCounter = new AtomicInteger(0);
     private final Injector mInjector = InjectorProvider.getInjector();
+    /** Cancels the decoding requests of this fragment once it is destroyed. */
+    private final CancellationSignal mDecodeCancellationSignal = new CancellationSignal();
 
     /**
      * Size of the screen considered for cropping the wallpaper (typically the same as
@@ -133,10 +135,22 @@ public class ImagePreviewFragment extends PreviewFragment {
     protected SubsamplingScaleImageView mFullResImageView;
     protected Asset mWallpaperAsset;
     private Future<ColorInfo> mColorFuture;
+    /** Time the preview was opened at, which preview load times are measured from. */
+    private long mPreviewStartTimeMillis;
+    private boolean mIsFirstFrameRecorded;
+    private boolean mIsSharpFrameRecorded;
+    /**
+     * Ratio of the size of the image shown by MosaicView to the raw size of the wallpaper, which is
+     * less than 1 when a page bitmap scaled down from a large, untiled wallpaper is shown on its
+     * own. Scales and coordinates of MosaicView are converted with it to those of the raw
+     * wallpaper.
+     */
+    private float mShownImageScale = 1f;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mPreviewStartTimeMillis = SystemClock.elapsedRealtime();
         mWallpaperAsset = mWallpaper.getAsset(requireContext().getApplicationContext());
         mColorFuture = mWallpaper.computeColorInfo(requireContext());
         mWallpaperPreferences = mInjector.getPreferences(getContext());
@@ -254,6 +268,9 @@ public class ImagePreviewFragment extends PreviewFragment {
     public void onDestroy() {
         super.onDestroy();
 
+        mDecodeCancellationSignal.cancel();
+        mWallpaperAsset.releaseResources();
+
         if (mFullResImageView != null) {
             mFullResImageView.recycle();
         }
@@ -316,8 +333,8 @@ public class ImagePreviewFragment extends PreviewFragment {
     }
 
     /**
-     * Initializes MosaicView by initializing tiling, setting a fallback page bitmap, and
-     * initializing a zoom-scroll observer and click listener.
+     * Initializes MosaicView by initializing tiling, setting a screen-sized page bitmap shown
+     * until tiles are loaded, and initializing a zoom-scroll observer and click listener.
      */
     private synchronized void initFullResView() {
         if (mRawWallpaperSize == null || mFullResImageView == null
@@ -340,11 +357,16 @@ public class ImagePreviewFragment extends PreviewFragment {
         // disallow user to pan outside the view we show the wallpaper in.
         mFullResImageView.setPanLimit(SubsamplingScaleImageView.PAN_LIMIT_INSIDE);
 
-        // Then set a fallback "page bitmap" to cover the whole MosaicView, which is an actual
-        // (lower res) version of the image to be displayed.
-        Point targetPageBitmapSize = new Point(mRawWallpaperSize);
+        // Then set a "page bitmap" to cover the whole MosaicView, which is an actual (lower res)
+        // version of the image to be displayed. When the image can be tiled, it is only decoded
+        // at the size of the screen, so that it shows up quickly, and MosaicView then decodes
+        // tiles at the resolution the image is zoomed to. Otherwise it is decoded at no more than
+        // the resolution needed at the maximum zoom.
+        StreamableAsset tiledAsset = getTiledAsset();
+        Point targetPageBitmapSize = tiledAsset != null
+                ? getPageBitmapSize() : getUntiledPageBitmapSize();
         mWallpaperAsset.decodeBitmap(targetPageBitmapSize.x, targetPageBitmapSize.y,
-                pageBitmap -> {
+                mDecodeCancellationSignal, pageBitmap -> {
                     // Check that the activity is still around since the decoding task started.
                     if (getActivity() == null) {
                         return;
@@ -360,8 +382,25 @@ public class ImagePreviewFragment extends PreviewFragment {
                     // or destroyed.
                     mWallpaperSurface.setBackgroundColor(Color.TRANSPARENT);
                     if (mFullResImageView != null) {
-                        // Set page bitmap.
-                        mFullResImageView.setImage(ImageSource.bitmap(pageBitmap));
+                        // Tile the image only if the page bitmap is actually smaller than it.
+                        boolean isTiled = tiledAsset != null
+                                && pageBitmap.getWidth() < mRawWallpaperSize.x;
+                        mFullResImageView.setOnImageEventListener(
+                                new PreviewLoadTimeListener(isTiled));
+                        mShownImageScale = isTiled
+                                ? 1f : (float) pageBitmap.getWidth() / mRawWallpaperSize.x;
+                        if (isTiled) {
+                            mFullResImageView.setExecutor(task -> mInjector.getDecodeScheduler()
+                                    .submit(DecodeScheduler.LANE_FULL_RES_PREVIEW, task));
+                            mFullResImageView.setRegionDecoderFactory(
+                                    StreamableAssetRegionDecoder.newFactory(tiledAsset));
+                            ImageSource tiledImage = ImageSource.uri(
+                                    StreamableAssetRegionDecoder.TILE_SOURCE_URI)
+                                    .dimensions(mRawWallpaperSize.x, mRawWallpaperSize.y);
+                            mFullResImageView.setImage(tiledImage, ImageSource.bitmap(pageBitmap));
+                        } else {
+                            mFullResImageView.setImage(ImageSource.bitmap(pageBitmap));
+                        }
 
                         if (isWallpaperColorCached) {
                             crossFadeInMosaicView();
@@ -409,6 +448,44 @@ public class ImagePreviewFragment extends PreviewFragment {
         });
     }
 
+    /**
+     * Returns the asset MosaicView can decode tiles of the wallpaper from, or null if the wallpaper
+     * can't be tiled and has to be shown from a single page bitmap.
+     */
+    @Nullable
+    private StreamableAsset getTiledAsset() {
+        return mWallpaperAsset instanceof StreamableAsset && mWallpaperAsset.supportsTiling()
+                ? (StreamableAsset) mWallpaperAsset : null;
+    }
+
+    /**
+     * Returns the size to decode the page bitmap at when the wallpaper is tiled, which is enough
+     * to show the wallpaper sharply at its default zoom.
+     */
+    private Point getPageBitmapSize() {
+        int width = mFullResImageView.getWidth();
+        int height = mFullResImageView.getHeight();
+        return width > 0 && height > 0 ? new Point(width, height) : new Point(mScreenSize);
+    }
+
+    /**
+     * Returns the size to decode the page bitmap at when the wallpaper isn't tiled, which is the
+     * raw size of the wallpaper capped to the size it fills the page with at the maximum zoom.
+     */
+    private Point getUntiledPageBitmapSize() {
+        Point pageSize = getPageBitmapSize();
+        float fillScale = Math.max((float) pageSize.x / mRawWallpaperSize.x,
+                (float) pageSize.y / mRawWallpaperSize.y);
+        float scale = Math.min(1f, fillScale * DEFAULT_WALLPAPER_MAX_ZOOM);
+        return new Point(Math.max(1, Math.round(mRawWallpaperSize.x * scale)),
+                Math.max(1, Math.round(mRawWallpaperSize.y * scale)));
+    }
+
+    /** Returns the scale MosaicView shows the raw wallpaper at. */
+    private float getRawWallpaperScale() {
+        return mFullResImageView.getScale() * mShownImageScale;
+    }
+
     private void recalculateColors(boolean cacheColor) {
         Context context = getContext();
         if (context == null) {
@@ -417,32 +494,18 @@ public class ImagePreviewFragment extends PreviewFragment {
         }
 
         BitmapCropper bitmapCropper = mInjector.getBitmapCropper();
-        bitmapCropper.cropAndScaleBitmap(mWallpaperAsset, mFullResImageView.getScale(),
-                calculateCropRect(context), /* adjustForRtl= */ false,
+        bitmapCropper.cropAndScaleBitmap(mWallpaperAsset, getRawWallpaperScale(),
+                calculateCropRect(context), /* adjustForRtl= */ false, mDecodeCancellationSignal,
                 new BitmapCropper.Callback() {
                     @Override
                     public void onBitmapCropped(Bitmap croppedBitmap) {
                         mRecalculateColorCounter.incrementAndGet();
-                        sExecutor.execute(() -> {
-                            boolean shouldRecycle = false;
-                            ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
-                            Bitmap cropped = croppedBitmap;
-                            if (cropped.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
-                                byte[] outByteArray = tmpOut.toByteArray();
-                                BitmapFactory.Options options = new BitmapFactory.Options();
-                                options.inPreferredColorSpace =
-                                        ColorSpace.get(ColorSpace.Named.SRGB);
-                                cropped = BitmapFactory.decodeByteArray(outByteArray, 0,
-                                        outByteArray.length);
-                            }
-                            if (cropped.getConfig() == Bitmap.Config.HARDWARE) {
-                                cropped = cropped.copy(Bitmap.Config.ARGB_8888, false);
-                                shouldRecycle = true;
-                            }
-                            WallpaperColors colors = WallpaperColors.fromBitmap(cropped);
-                            if (shouldRecycle) {
-                                cropped.recycle();
-                            }
+                        mInjector.getDecodeScheduler().submit(
+                                DecodeScheduler.LANE_FULL_RES_PREVIEW, () -> {
+                            // The quantizer samples the cropped bitmap down and reads its
+                            // pixels in sRGB, whatever its config and color space.
+                            WallpaperColors colors =
+                                    WallpaperColorQuantizer.extract(croppedBitmap, "preview");
                             if (mRecalculateColorCounter.decrementAndGet() == 0) {
                                 Handler.getMain().post(() -> {
                                     onWallpaperColorsChanged(colors);
@@ -532,20 +595,32 @@ public class ImagePreviewFragment extends PreviewFragment {
         final float minWallpaperZoom = defaultWallpaperZoom;
 
 
-        // Set min wallpaper zoom and max zoom on MosaicView widget.
-        mFullResImageView.setMaxScale(Math.max(DEFAULT_WALLPAPER_MAX_ZOOM, defaultWallpaperZoom));
-        mFullResImageView.setMinScale(minWallpaperZoom);
+        // Set min wallpaper zoom and max zoom on MosaicView widget, relative to the image it shows.
+        mFullResImageView.setMaxScale(Math.max(DEFAULT_WALLPAPER_MAX_ZOOM, defaultWallpaperZoom)
+                / mShownImageScale);
+        mFullResImageView.setMinScale(minWallpaperZoom / mShownImageScale);
 
         // Set center to composite positioning between scaled wallpaper and screen.
-        mFullResImageView.setScaleAndCenter(minWallpaperZoom, centerPosition);
+        centerPosition.x *= mShownImageScale;
+        centerPosition.y *= mShownImageScale;
+        mFullResImageView.setScaleAndCenter(minWallpaperZoom / mShownImageScale, centerPosition);
     }
 
     private Rect calculateCropRect(Context context) {
-        float wallpaperZoom = mFullResImageView.getScale();
+        float wallpaperZoom = getRawWallpaperScale();
         Context appContext = context.getApplicationContext();
 
         Rect visibleFileRect = new Rect();
         mFullResImageView.visibleFileRect(visibleFileRect);
+        if (mShownImageScale != 1f) {
+            visibleFileRect.set(
+                    Math.round(visibleFileRect.left / mShownImageScale),
+                    Math.round(visibleFileRect.top / mShownImageScale),
+                    Math.min(mRawWallpaperSize.x,
+                            Math.round(visibleFileRect.right / mShownImageScale)),
+                    Math.min(mRawWallpaperSize.y,
+                            Math.round(visibleFileRect.bottom / mShownImageScale)));
+        }
 
         int cropWidth = mWallpaperSurface.getMeasuredWidth();
         int cropHeight = mWallpaperSurface.getMeasuredHeight();
@@ -564,7 +639,7 @@ public class ImagePreviewFragment extends PreviewFragment {
     protected void setCurrentWallpaper(@Destination int destination) {
         Rect cropRect = calculateCropRect(getContext());
         float screenScale = WallpaperCropUtils.getScaleOfScreenResolution(
-                mFullResImageView.getScale(), cropRect, mWallpaperScreenSize.x,
+                getRawWallpaperScale(), cropRect, mWallpaperScreenSize.x,
                 mWallpaperScreenSize.y);
         Rect scaledCropRect = new Rect(
                 Math.round((float) cropRect.left * screenScale),
@@ -572,7 +647,7 @@ public class ImagePreviewFragment extends PreviewFragment {
                 Math.round((float) cropRect.right * screenScale),
                 Math.round((float) cropRect.bottom * screenScale));
         mWallpaperSetter.setCurrentWallpaper(getActivity(), mWallpaper, mWallpaperAsset,
-                destination, mFullResImageView.getScale() * screenScale, scaledCropRect,
+                destination, getRawWallpaperScale() * screenScale, scaledCropRect,
                 mWallpaperColors, SetWallpaperViewModel.getCallback(mViewModelProvider));
     }
 
@@ -585,6 +660,40 @@ public class ImagePreviewFragment extends PreviewFragment {
         mWallpaperSurface.getHolder().addCallback(mWallpaperSurfaceCallback);
     }
 
+    /**
+     * Reports how long the preview took to show a first frame of the wallpaper, and to show it
+     * sharply, which with tiling is when the tiles of the default zoom are loaded. Only the
+     * first load of the preview is reported, not reloads after its surface is recreated.
+     */
+    private class PreviewLoadTimeListener
+            extends SubsamplingScaleImageView.DefaultOnImageEventListener {
+        private final boolean mIsTiled;
+
+        PreviewLoadTimeListener(boolean isTiled) {
+            mIsTiled = isTiled;
+        }
+
+        @Override
+        public void onReady() {
+            if (mIsFirstFrameRecorded) {
+                return;
+            }
+            mIsFirstFrameRecorded = true;
+            mInjector.getPerformanceMonitor().recordPreviewTimeToFirstFrame(mIsTiled,
+                    SystemClock.elapsedRealtime() - mPreviewStartTimeMillis);
+        }
+
+        @Override
+        public void onImageLoaded() {
+            if (mIsSharpFrameRecorded) {
+                return;
+            }
+            mIsSharpFrameRecorded = true;
+            mInjector.getPerformanceMonitor().recordPreviewTimeToSharp(mIsTiled,
+                    SystemClock.elapsedRealtime() - mPreviewStartTimeMillis);
+        }
+    }
+
     private class WallpaperSurfaceCallback implements SurfaceHolder.Callback {
         private Surface mLastSurface;
         private SurfaceControlViewHost mHost;
@@ -601,7 +710,8 @@ public class ImagePreviewFragment extends PreviewFragment {
                         R.layout.fullscreen_wallpaper_preview, null);
                 mFullResImageView = wallpaperPreviewContainer.findViewById(R.id.full_res_image);
                 mLowResImageView = wallpaperPreviewContainer.findViewById(R.id.low_res_image);
-                mWallpaperAsset.decodeRawDimensions(getActivity(), dimensions -> {
+                mWallpaperAsset.decodeRawDimensions(getActivity(), mDecodeCancellationSignal,
+                        dimensions -> {
                     // Don't continue loading the wallpaper if the Fragment is detached.
                     if (getActivity() == null) {
                         return;
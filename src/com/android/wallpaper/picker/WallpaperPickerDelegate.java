@@ -77,6 +77,24 @@ public class WallpaperPickerDelegate implements MyPhotosStarter {
     private PackageStatusNotifier.Listener mDownloadableWallpaperStatusListener;
     private String mDownloadableIntentAction;
     private CategoryProvider mCategoryProvider;
+    // Receives the categories changed by a single package being installed, updated or removed.
+    private final CategoryReceiver mPackageCategoriesReceiver = new CategoryReceiver() {
+        @Override
+        public void onCategoryReceived(Category category) {
+            // Updates the category in place if it's already shown.
+            addCategory(category, false);
+        }
+
+        @Override
+        public void onCategoryRemoved(Category category) {
+            removeCategory(category);
+        }
+
+        @Override
+        public void doneFetchingCategories() {
+            // Do nothing here.
+        }
+    };
     private WallpaperPersister mWallpaperPersister;
     private static final String READ_IMAGE_PERMISSION = permission.READ_MEDIA_IMAGES;
 
@@ -167,39 +185,12 @@ public class WallpaperPickerDelegate implements MyPhotosStarter {
     }
 
     private void updateThirdPartyCategories(String packageName, @PackageStatus int status) {
-        if (status == PackageStatus.ADDED) {
-            mCategoryProvider.fetchCategories(new CategoryReceiver() {
-                @Override
-                public void onCategoryReceived(Category category) {
-                    if (category.supportsThirdParty() && category.containsThirdParty(packageName)) {
-                        addCategory(category, false);
-                    }
-                }
-
-                @Override
-                public void doneFetchingCategories() {
-                    // Do nothing here.
-                }
-            }, true);
-        } else if (status == PackageStatus.REMOVED) {
-            Category oldCategory = findThirdPartyCategory(packageName);
-            if (oldCategory != null) {
-                mCategoryProvider.fetchCategories(new CategoryReceiver() {
-                    @Override
-                    public void onCategoryReceived(Category category) {
-                        // Do nothing here
-                    }
-
-                    @Override
-                    public void doneFetchingCategories() {
-                        removeCategory(oldCategory);
-                    }
-                }, true);
-            }
-        } else {
-            // CHANGED package, let's reload all categories as we could have more or fewer now
-            populateCategories(/* forceRefresh= */ true);
+        if (status == PackageStatus.REMOVED && findThirdPartyCategory(packageName) == null) {
+            // If we're removing an app which had no category, there's nothing to do.
+            return;
         }
+        mCategoryProvider.updateThirdPartyAppCategories(packageName, status,
+                mPackageCategoriesReceiver);
     }
 
     private Category findThirdPartyCategory(String packageName) {
@@ -226,28 +217,8 @@ public class WallpaperPickerDelegate implements MyPhotosStarter {
             // there's nothing to do.
             return;
         }
-        mCategoryProvider.fetchCategories(new CategoryReceiver() {
-            @Override
-            public void onCategoryReceived(Category category) {
-                // Do nothing here
-            }
-
-            @Override
-            public void doneFetchingCategories() {
-                Category liveWallpapersCategory =
-                        mCategoryProvider.getCategory(liveWallpaperCollectionId);
-                if (liveWallpapersCategory == null) {
-                    // There are no more 3rd party live wallpapers, so the Category is gone.
-                    removeCategory(oldLiveWallpapersCategory);
-                } else {
-                    if (oldLiveWallpapersCategory != null) {
-                        updateCategory(liveWallpapersCategory);
-                    } else {
-                        addCategory(liveWallpapersCategory, false);
-                    }
-                }
-            }
-        }, true);
+        mCategoryProvider.updateLiveWallpaperCategory(packageName, status,
+                mPackageCategoriesReceiver);
     }
 
     /**
@@ -290,6 +261,11 @@ public class WallpaperPickerDelegate implements MyPhotosStarter {
                 addCategory(category, true);
             }
 
+            @Override
+            public void onCategoryRemoved(Category category) {
+                removeCategory(category);
+            }
+
             @Override
             public void doneFetchingCategories() {
                 notifyDoneFetchingCategories();
@@ -24,6 +24,7 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
 
 import com.android.wallpaper.R;
+import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.util.ResourceUtils;
 
@@ -82,4 +83,12 @@ abstract class IndividualHolder extends ViewHolder {
                     ResourceUtils.getColorAttr(mActivity, android.R.attr.colorSecondary));
         }
     }
+
+    /**
+     * Cancels the thumbnail decoding still pending for this holder, if any. Called when the holder
+     * is recycled so that work for tiles which scrolled away doesn't delay visible ones.
+     */
+    public void cancelPendingThumbnailDecode() {
+        Asset.cancelPendingDecode(mThumbnailView);
+    }
 }
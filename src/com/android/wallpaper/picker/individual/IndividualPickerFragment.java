@@ -41,6 +41,7 @@ import android.widget.Toast;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.cardview.widget.CardView;
 import androidx.core.widget.ContentLoadingProgressBar;
 import androidx.fragment.app.DialogFragment;
@@ -50,6 +51,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
 
 import com.android.wallpaper.R;
+import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.model.Category;
 import com.android.wallpaper.model.CategoryProvider;
 import com.android.wallpaper.model.CategoryReceiver;
@@ -62,6 +64,7 @@ import com.android.wallpaper.model.WallpaperRotationInitializer.NetworkPreferenc
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.PackageStatusNotifier;
+import com.android.wallpaper.module.WallpaperColorExtractor;
 import com.android.wallpaper.module.WallpaperPreferences;
 import com.android.wallpaper.picker.AppbarFragment;
 import com.android.wallpaper.picker.FragmentTransactionChecker;
@@ -74,6 +77,7 @@ import com.android.wallpaper.util.DiskBasedLogger;
 import com.android.wallpaper.util.LaunchUtils;
 import com.android.wallpaper.util.SizeCalculator;
 import com.android.wallpaper.widget.GridPaddingDecoration;
+import com.android.wallpaper.widget.GridThumbnailPrefetcher;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate.BottomSheetHost;
 
@@ -149,6 +153,7 @@ public class IndividualPickerFragment extends AppbarFragment
     WallpaperRotationInitializer mWallpaperRotationInitializer;
     List<WallpaperInfo> mWallpapers;
     Point mTileSizePx;
+    GridThumbnailPrefetcher mThumbnailPrefetcher;
     PackageStatusNotifier mPackageStatusNotifier;
 
     boolean mIsWallpapersReceived;
@@ -328,6 +333,8 @@ public class IndividualPickerFragment extends AppbarFragment
         mAppliedWallpaperIds = getAppliedWallpaperIds();
 
         mImageGrid = (RecyclerView) view.findViewById(R.id.wallpaper_grid);
+        mThumbnailPrefetcher = new GridThumbnailPrefetcher(getContext(), "individual",
+                this::getThumbnailAtPosition);
         mLoading = view.findViewById(R.id.loading_indicator);
         updateLoading();
         maybeSetUpImageGrid();
@@ -390,11 +397,29 @@ public class IndividualPickerFragment extends AppbarFragment
                 ? SizeCalculator.getFeaturedIndividualTileSize(getActivity())
                 : SizeCalculator.getIndividualTileSize(getActivity());
         setUpImageGrid();
+        mThumbnailPrefetcher.attach(mImageGrid);
         mImageGrid.setAccessibilityDelegateCompat(
                 new WallpaperPickerRecyclerViewAccessibilityDelegate(
                         mImageGrid, (BottomSheetHost) getParentFragment(), getNumColumns()));
     }
 
+    /**
+     * Returns the thumbnail of the wallpaper tile at the given adapter position, if any.
+     */
+    @Nullable
+    private Asset getThumbnailAtPosition(int position) {
+        if (mAdapter == null
+                || mAdapter.getItemViewType(position)
+                        != IndividualAdapter.ITEM_VIEW_TYPE_INDIVIDUAL_WALLPAPER) {
+            return null;
+        }
+        int wallpaperIndex = mCategory.supportsCustomPhotos() ? position - 1 : position;
+        if (wallpaperIndex < 0 || wallpaperIndex >= mWallpapers.size()) {
+            return null;
+        }
+        return mWallpapers.get(wallpaperIndex).getThumbAsset(getContext().getApplicationContext());
+    }
+
     boolean isFewerColumnLayout() {
         return mWallpapers != null && mWallpapers.size() <= MAX_CAPACITY_IN_FEWER_COLUMN_LAYOUT;
     }
@@ -455,6 +480,9 @@ public class IndividualPickerFragment extends AppbarFragment
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (mThumbnailPrefetcher != null) {
+            mThumbnailPrefetcher.detach();
+        }
         getIndividualPickerFragmentHost().removeToolbarMenu();
     }
 
@@ -696,6 +724,14 @@ public class IndividualPickerFragment extends AppbarFragment
             }
         }
 
+        @Override
+        public void onViewRecycled(@NonNull ViewHolder holder) {
+            super.onViewRecycled(holder);
+            if (holder instanceof IndividualHolder) {
+                ((IndividualHolder) holder).cancelPendingThumbnailDecode();
+            }
+        }
+
         @Override
         public int getItemCount() {
             return mCategory.supportsCustomPhotos() ? mWallpapers.size() + 1 : mWallpapers.size();
@@ -720,8 +756,11 @@ public class IndividualPickerFragment extends AppbarFragment
         void onBindIndividualHolder(ViewHolder holder, int position) {
             int wallpaperIndex = mCategory.supportsCustomPhotos() ? position - 1 : position;
             WallpaperInfo wallpaper = mWallpapers.get(wallpaperIndex);
-            wallpaper.computeColorInfo(holder.itemView.getContext());
-            ((IndividualHolder) holder).bindWallpaper(wallpaper);
+            wallpaper.computeColorInfo(holder.itemView.getContext(),
+                    WallpaperColorExtractor.PRIORITY_TILE);
+            IndividualHolder individualHolder = (IndividualHolder) holder;
+            mThumbnailPrefetcher.onBindThumbnail(position, individualHolder.mThumbnailView);
+            individualHolder.bindWallpaper(wallpaper);
             boolean isWallpaperApplied = isWallpaperApplied(wallpaper);
 
             CardView container = holder.itemView.findViewById(R.id.wallpaper_container);
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util;
+
+import android.app.WallpaperColors;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.wallpaper.module.InjectorProvider;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts {@link WallpaperColors} from a bitmap, as a cheaper replacement of
+ * {@link WallpaperColors#fromBitmap} for images which are analyzed often or in full size.
+ *
+ * <p>The bitmap is sampled down to a fixed number of pixels, which are counted in a histogram of
+ * colors reduced to 4 bits per channel. The average color and population of each bucket are handed
+ * to {@link WallpaperColors}, which picks the main colors from them as it does for the colors it
+ * quantizes itself, and the color hints are computed from the luminance of the samples with the
+ * platform's thresholds.
+ */
+public final class WallpaperColorQuantizer {
+    // Same order of magnitude as the area the platform scales bitmaps down to.
+    private static final int MAX_SAMPLE_AREA = 64 * 64;
+    private static final int BITS_PER_CHANNEL = 4;
+    private static final int BUCKET_COUNT = 1 << (3 * BITS_PER_CHANNEL);
+    private static final int MIN_ALPHA = 128;
+
+    // Thresholds of WallpaperColors' own color hints computation.
+    private static final float MAX_DARK_AREA = 0.05f;
+    private static final float DARK_THEME_MEAN_LUMINANCE = 0.3f;
+    private static final float BRIGHT_IMAGE_MEAN_LUMINANCE = 0.7f;
+    private static final float DARK_PIXEL_CONTRAST = 5.5f;
+
+    private WallpaperColorQuantizer() {
+    }
+
+    /**
+     * Extracts the colors of the given bitmap, and records how long it took under the given name
+     * with the {@link com.android.wallpaper.monitor.PerformanceMonitor}. The bitmap may use any
+     * config, including {@link Bitmap.Config#HARDWARE}.
+     *
+     * @param path Name of the code path extracting the colors, for example "preview".
+     */
+    @WorkerThread
+    public static WallpaperColors extract(Bitmap bitmap, String path) {
+        long startTime = SystemClock.elapsedRealtime();
+        WallpaperColors colors = extract(bitmap);
+        InjectorProvider.getInjector().getPerformanceMonitor().recordColorExtractionTime(
+                path, SystemClock.elapsedRealtime() - startTime);
+        return colors;
+    }
+
+    /**
+     * Extracts the colors of the given bitmap, which may use any config, including
+     * {@link Bitmap.Config#HARDWARE}.
+     */
+    @WorkerThread
+    public static WallpaperColors extract(Bitmap bitmap) {
+        int[] pixels = sample(bitmap);
+
+        int[] populations = new int[BUCKET_COUNT];
+        int[] redSums = new int[BUCKET_COUNT];
+        int[] greenSums = new int[BUCKET_COUNT];
+        int[] blueSums = new int[BUCKET_COUNT];
+        int sampleCount = 0;
+        int darkPixelCount = 0;
+        double luminanceSum = 0;
+        for (int pixel : pixels) {
+            if (Color.alpha(pixel) < MIN_ALPHA) {
+                continue;
+            }
+            int red = Color.red(pixel);
+            int green = Color.green(pixel);
+            int blue = Color.blue(pixel);
+            int bucket = (red >> (8 - BITS_PER_CHANNEL)) << (2 * BITS_PER_CHANNEL)
+                    | (green >> (8 - BITS_PER_CHANNEL)) << BITS_PER_CHANNEL
+                    | (blue >> (8 - BITS_PER_CHANNEL));
+            populations[bucket]++;
+            redSums[bucket] += red;
+            greenSums[bucket] += green;
+            blueSums[bucket] += blue;
+
+            float luminance = Color.luminance(pixel | 0xFF000000);
+            luminanceSum += luminance;
+            // Contrast ratio against black text, as defined by WCAG.
+            if ((luminance + 0.05f) / 0.05f < DARK_PIXEL_CONTRAST) {
+                darkPixelCount++;
+            }
+            sampleCount++;
+        }
+
+        if (sampleCount == 0) {
+            return new WallpaperColors(Collections.singletonMap(Color.TRANSPARENT, pixels.length),
+                    WallpaperColors.HINT_FROM_BITMAP);
+        }
+
+        Map<Integer, Integer> populationByColor = new HashMap<>();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            int population = populations[bucket];
+            if (population > 0) {
+                int color = Color.rgb(redSums[bucket] / population,
+                        greenSums[bucket] / population, blueSums[bucket] / population);
+                populationByColor.merge(color, population, Integer::sum);
+            }
+        }
+
+        return new WallpaperColors(populationByColor,
+                computeColorHints((float) (luminanceSum / sampleCount),
+                        (float) darkPixelCount / sampleCount));
+    }
+
+    /**
+     * Returns the pixels of the given bitmap scaled down to at most {@link #MAX_SAMPLE_AREA}
+     * pixels, in sRGB.
+     */
+    private static int[] sample(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Bitmap sampled = bitmap;
+        int area = width * height;
+        if (area > MAX_SAMPLE_AREA) {
+            double scale = Math.sqrt((double) MAX_SAMPLE_AREA / area);
+            width = Math.max(1, (int) (width * scale));
+            height = Math.max(1, (int) (height * scale));
+            sampled = Bitmap.createScaledBitmap(bitmap, width, height, /* filter= */ true);
+        }
+        // Pixels of hardware bitmaps can't be read, but copying the sampled bitmap is cheap.
+        if (sampled.getConfig() == Bitmap.Config.HARDWARE) {
+            Bitmap copy = sampled.copy(Bitmap.Config.ARGB_8888, /* isMutable= */ false);
+            if (sampled != bitmap) {
+                sampled.recycle();
+            }
+            sampled = copy;
+        }
+
+        int[] pixels = new int[width * height];
+        sampled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (sampled != bitmap) {
+            sampled.recycle();
+        }
+        return pixels;
+    }
+
+    private static int computeColorHints(float meanLuminance, float darkArea) {
+        int hints = WallpaperColors.HINT_FROM_BITMAP;
+        if (meanLuminance > BRIGHT_IMAGE_MEAN_LUMINANCE && darkArea < MAX_DARK_AREA) {
+            hints |= WallpaperColors.HINT_SUPPORTS_DARK_TEXT;
+        }
+        if (meanLuminance < DARK_THEME_MEAN_LUMINANCE) {
+            hints |= WallpaperColors.HINT_SUPPORTS_DARK_THEME;
+        }
+        return hints;
+    }
+}
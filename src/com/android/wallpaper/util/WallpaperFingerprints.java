@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util;
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.wallpaper.compat.WallpaperManagerCompat;
+import com.android.wallpaper.compat.WallpaperManagerCompat.WallpaperLocation;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Computes content-addressed fingerprints of the image wallpapers set to the device, by hashing
+ * the bytes of their files rather than decoding them.
+ *
+ * <p>Unlike WallpaperManager IDs, which are local to a physical device, fingerprints identify the
+ * same image across devices, so they survive backup & restore. Fingerprints are cached per
+ * WallpaperManager ID, which changes every time a wallpaper is set.
+ */
+public final class WallpaperFingerprints {
+    private static final String TAG = "WallpaperFingerprints";
+
+    // Multiple of 8 bytes, so that only the last chunk may have a tail to hash byte by byte.
+    private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    // Cached fingerprints by WallpaperManager ID and location, guarded by themselves.
+    private static final LongSparseArray<Long> sFingerprints = new LongSparseArray<>();
+
+    private WallpaperFingerprints() {
+    }
+
+    /**
+     * Returns the fingerprint of the image wallpaper currently set to the given location, or 0 if
+     * there is none or its file can't be read. Should only be called off the main UI thread.
+     */
+    public static long get(WallpaperManagerCompat wallpaperManagerCompat,
+            @WallpaperLocation int whichWallpaper) {
+        long cacheKey = ((long) whichWallpaper << 32)
+                | (wallpaperManagerCompat.getWallpaperId(whichWallpaper) & 0xFFFFFFFFL);
+        synchronized (sFingerprints) {
+            Long fingerprint = sFingerprints.get(cacheKey);
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+        }
+
+        ParcelFileDescriptor pfd = wallpaperManagerCompat.getWallpaperFile(whichWallpaper);
+        // getWallpaperFile returns null if the lock screen isn't explicitly set, so need this
+        // check.
+        if (pfd == null) {
+            return 0;
+        }
+
+        long fingerprint;
+        try (FileInputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            fingerprint = compute(inputStream.getChannel());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to fingerprint wallpaper file", e);
+            return 0;
+        }
+        synchronized (sFingerprints) {
+            sFingerprints.put(cacheKey, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the fingerprint of the contents of the given file, which is never 0. The file is
+     * mapped into memory and hashed 8 bytes at a time. Should only be called off the main UI
+     * thread.
+     */
+    public static long compute(FileChannel channel) throws IOException {
+        return compute(channel, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Computes the fingerprint of the contents of the given file, mapping at most the given number
+     * of bytes at a time, which must be a multiple of 8 for the result not to depend on it.
+     */
+    static long compute(FileChannel channel, long maxChunkSize) throws IOException {
+        long size = channel.size();
+        long hash = SEED ^ size;
+        // Map the file in chunks so that huge files don't exhaust the address space.
+        long position = 0;
+        while (position < size) {
+            long chunkSize = Math.min(size - position, maxChunkSize);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    chunkSize);
+            hash = hashChunk(buffer, hash);
+            position += chunkSize;
+        }
+        return finish(hash);
+    }
+
+    /**
+     * Returns the fingerprint of the given hash of a file's contents.
+     */
+    static long finish(long hash) {
+        hash = mix(hash);
+        // 0 means there's no fingerprint stored, so never return it.
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long hashChunk(ByteBuffer buffer, long hash) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= Long.BYTES) {
+            long k = buffer.getLong() * C1;
+            k = Long.rotateLeft(k, 31) * C2;
+            hash ^= k;
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52DCE729;
+        }
+        while (buffer.hasRemaining()) {
+            hash ^= (buffer.get() & 0xFF) * C1;
+            hash = Long.rotateLeft(hash, 11) * C2;
+        }
+        return hash;
+    }
+
+    /**
+     * Final avalanche step, so that every input bit affects every bit of the fingerprint.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
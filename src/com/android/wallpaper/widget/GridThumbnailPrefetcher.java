@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.widget;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.graphics.drawable.Drawable;
+import android.os.CancellationSignal;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.wallpaper.asset.Asset;
+import com.android.wallpaper.module.InjectorProvider;
+
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+/**
+ * Prefetches the thumbnails of the rows of a grid of tiles which are about to scroll into view, in
+ * the direction the grid is scrolled, so that they are already in memory when their tiles are
+ * bound. Prefetches of rows which scroll out of range are cancelled.
+ *
+ * <p>Tiles must report their binding with {@link #onBindThumbnail} before loading their thumbnail.
+ * Thumbnails are prefetched at the size the tiles of the same view type load them at, which is
+ * only known once such a tile is laid out, and the data source of each tile's load tells how many
+ * thumbnails were prefetched in time.
+ */
+public class GridThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+    private static final int PREFETCH_ROW_COUNT = 2;
+
+    /**
+     * Provides the thumbnail shown by the tile at a given adapter position.
+     */
+    public interface ThumbnailProvider {
+        /**
+         * Returns the thumbnail of the tile at the given adapter position, or null if that tile
+         * has none.
+         */
+        @Nullable
+        Asset getThumbnail(int position);
+    }
+
+    private final Context mContext;
+    private final String mGridName;
+    private final ThumbnailProvider mThumbnailProvider;
+    private final SparseArray<Prefetch> mPrefetches = new SparseArray<>();
+    private final RecyclerView.AdapterDataObserver mAdapterDataObserver =
+            new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    cancelAll();
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    cancelAll();
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    cancelAll();
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    cancelAll();
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    cancelAll();
+                }
+            };
+
+    // Size thumbnails are loaded at by the tiles of each view type, as measured by Glide.
+    private final SparseArray<Point> mThumbnailSizes = new SparseArray<>();
+
+    private RecyclerView mRecyclerView;
+    private RecyclerView.Adapter<?> mAdapter;
+    private boolean mScrollingUp;
+
+    private int mHitCount;
+    private int mLateHitCount;
+    private int mMissCount;
+    private int mWastedCount;
+
+    /**
+     * @param gridName Name of the grid, used when reporting how well its thumbnails were
+     *                 prefetched.
+     */
+    public GridThumbnailPrefetcher(Context context, String gridName,
+            ThumbnailProvider thumbnailProvider) {
+        mContext = context.getApplicationContext();
+        mGridName = gridName;
+        mThumbnailProvider = thumbnailProvider;
+    }
+
+    /**
+     * Starts prefetching for the given grid, whose adapter and {@link GridLayoutManager} must
+     * already be set. Should be called again whenever the adapter or the layout of the tiles
+     * change.
+     */
+    public void attach(RecyclerView recyclerView) {
+        if (mRecyclerView != recyclerView || mAdapter != recyclerView.getAdapter()) {
+            detachFromGrid();
+            mRecyclerView = recyclerView;
+            mAdapter = recyclerView.getAdapter();
+            mRecyclerView.addOnScrollListener(this);
+            if (mAdapter != null) {
+                mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
+            }
+        }
+        mThumbnailSizes.clear();
+        cancelAll();
+        updatePrefetches();
+    }
+
+    /**
+     * Stops prefetching, cancels pending prefetches and reports how well thumbnails were
+     * prefetched to the {@link com.android.wallpaper.monitor.PerformanceMonitor}.
+     */
+    public void detach() {
+        detachFromGrid();
+        if (mHitCount + mLateHitCount + mMissCount > 0) {
+            InjectorProvider.getInjector().getPerformanceMonitor().recordThumbnailPrefetchStats(
+                    mGridName, mHitCount, mLateHitCount, mMissCount, mWastedCount);
+        }
+        mHitCount = 0;
+        mLateHitCount = 0;
+        mMissCount = 0;
+        mWastedCount = 0;
+    }
+
+    /**
+     * Records that the tile at the given adapter position is being bound and is about to load its
+     * thumbnail into the given ImageView with {@link Asset#loadDrawable}.
+     */
+    public void onBindThumbnail(int position, ImageView thumbnailView) {
+        int viewType = mAdapter != null ? mAdapter.getItemViewType(position) : 0;
+        if (!recordThumbnailSize(viewType, thumbnailView)) {
+            thumbnailView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View view, int left, int top, int right, int bottom,
+                        int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    if (recordThumbnailSize(viewType, thumbnailView)) {
+                        view.removeOnLayoutChangeListener(this);
+                    }
+                }
+            });
+        }
+
+        // The tile's own load picks up the prefetched thumbnail, or joins the load in flight.
+        Prefetch prefetch = mPrefetches.get(position);
+        mPrefetches.remove(position);
+        boolean isPrefetchInFlight = prefetch != null && !prefetch.mDone;
+        Asset.setDrawableRequestListener(thumbnailView, new RequestListener<Drawable>() {
+            private boolean mIsCounted;
+
+            @Override
+            public boolean onLoadFailed(@Nullable GlideException e, Object model,
+                    Target<Drawable> target, boolean isFirstResource) {
+                countLoad(/* dataSource= */ null);
+                return false;
+            }
+
+            @Override
+            public boolean onResourceReady(Drawable resource, Object model,
+                    Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+                countLoad(dataSource);
+                return false;
+            }
+
+            private void countLoad(@Nullable DataSource dataSource) {
+                // Restarted requests report again, but only the first load is shown on bind.
+                if (mIsCounted) {
+                    return;
+                }
+                mIsCounted = true;
+                if (dataSource == DataSource.MEMORY_CACHE) {
+                    mHitCount++;
+                } else if (isPrefetchInFlight) {
+                    mLateHitCount++;
+                } else {
+                    mMissCount++;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of bound thumbnails which were loaded from memory.
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of bound thumbnails which weren't in memory yet, but whose prefetch was
+     * still in flight.
+     */
+    public int getLateHitCount() {
+        return mLateHitCount;
+    }
+
+    /**
+     * Returns the number of bound thumbnails which were neither in memory nor being prefetched,
+     * including those of the first tiles shown.
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the fraction of bound thumbnails which were loaded from memory, or 0 if no thumbnail
+     * was loaded yet.
+     */
+    public float getHitRate() {
+        int bindCount = mHitCount + mLateHitCount + mMissCount;
+        return bindCount == 0 ? 0 : (float) mHitCount / bindCount;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        // Also called with no scroll after the grid is laid out, in which case the direction of
+        // the previous scroll is kept.
+        if (dy != 0) {
+            mScrollingUp = dy < 0;
+        }
+        updatePrefetches();
+    }
+
+    private void updatePrefetches() {
+        if (mRecyclerView == null || mAdapter == null
+                || !(mRecyclerView.getLayoutManager() instanceof GridLayoutManager)) {
+            return;
+        }
+        GridLayoutManager layoutManager = (GridLayoutManager) mRecyclerView.getLayoutManager();
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION || lastVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        // Tiles span different numbers of columns, so the range is found from their rows.
+        GridLayoutManager.SpanSizeLookup spanSizeLookup = layoutManager.getSpanSizeLookup();
+        int spanCount = layoutManager.getSpanCount();
+        int rangeStart;
+        int rangeEnd;
+        if (mScrollingUp) {
+            int firstRow = spanSizeLookup.getSpanGroupIndex(firstVisible, spanCount)
+                    - PREFETCH_ROW_COUNT;
+            rangeStart = firstVisible;
+            while (rangeStart > 0
+                    && spanSizeLookup.getSpanGroupIndex(rangeStart - 1, spanCount) >= firstRow) {
+                rangeStart--;
+            }
+            rangeEnd = firstVisible - 1;
+        } else {
+            int lastRow = spanSizeLookup.getSpanGroupIndex(lastVisible, spanCount)
+                    + PREFETCH_ROW_COUNT;
+            rangeStart = lastVisible + 1;
+            rangeEnd = lastVisible;
+            while (rangeEnd < mAdapter.getItemCount() - 1
+                    && spanSizeLookup.getSpanGroupIndex(rangeEnd + 1, spanCount) <= lastRow) {
+                rangeEnd++;
+            }
+        }
+
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int position = mPrefetches.keyAt(i);
+            if (position < rangeStart || position > rangeEnd) {
+                mPrefetches.valueAt(i).mCancellationSignal.cancel();
+                mPrefetches.removeAt(i);
+                mWastedCount++;
+            }
+        }
+
+        // Start with the tiles closest to the visible ones.
+        for (int i = 0; i <= rangeEnd - rangeStart; i++) {
+            int position = mScrollingUp ? rangeEnd - i : rangeStart + i;
+            if (mPrefetches.get(position) == null) {
+                prefetch(position);
+            }
+        }
+    }
+
+    private void prefetch(int position) {
+        // Thumbnails of tiles whose size isn't known yet would be cached under the wrong key.
+        Point size = mThumbnailSizes.get(mAdapter.getItemViewType(position));
+        Asset thumbnail = size != null ? mThumbnailProvider.getThumbnail(position) : null;
+        if (thumbnail == null) {
+            return;
+        }
+        Prefetch prefetch = new Prefetch();
+        if (thumbnail.prefetchDrawable(mContext, size.x, size.y,
+                prefetch.mCancellationSignal, () -> prefetch.mDone = true)) {
+            mPrefetches.put(position, prefetch);
+        }
+    }
+
+    /**
+     * Records the size the given ImageView, showing a tile of the given view type, loads its
+     * thumbnail at, which is its size without padding as with Glide's view targets.
+     *
+     * @return whether the ImageView was laid out, and its size could be recorded.
+     */
+    private boolean recordThumbnailSize(int viewType, ImageView thumbnailView) {
+        int width = thumbnailView.getWidth() - thumbnailView.getPaddingLeft()
+                - thumbnailView.getPaddingRight();
+        int height = thumbnailView.getHeight() - thumbnailView.getPaddingTop()
+                - thumbnailView.getPaddingBottom();
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        mThumbnailSizes.put(viewType, new Point(width, height));
+        return true;
+    }
+
+    private void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            mPrefetches.valueAt(i).mCancellationSignal.cancel();
+        }
+        mWastedCount += mPrefetches.size();
+        mPrefetches.clear();
+    }
+
+    private void detachFromGrid() {
+        cancelAll();
+        if (mRecyclerView != null) {
+            mRecyclerView.removeOnScrollListener(this);
+        }
+        if (mAdapter != null) {
+            mAdapter.unregisterAdapterDataObserver(mAdapterDataObserver);
+        }
+        mRecyclerView = null;
+        mAdapter = null;
+    }
+
+    private static class Prefetch {
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+        private boolean mDone;
+    }
+}
@@ -22,6 +22,7 @@ import com.android.wallpaper.model.CategoryProvider;
 import com.android.wallpaper.model.CategoryReceiver;
 import com.android.wallpaper.model.ImageCategory;
 import com.android.wallpaper.model.WallpaperInfo;
+import com.android.wallpaper.module.PackageStatusNotifier.PackageStatus;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -65,6 +66,18 @@ public class TestCategoryProvider implements CategoryProvider {
         });
     }
 
+    @Override
+    public void updateLiveWallpaperCategory(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver) {
+        receiver.doneFetchingCategories();
+    }
+
+    @Override
+    public void updateThirdPartyAppCategories(String packageName, @PackageStatus int status,
+            CategoryReceiver receiver) {
+        receiver.doneFetchingCategories();
+    }
+
     @Override
     public int getSize() {
         return mCategories == null ? 0 : mCategories.size();
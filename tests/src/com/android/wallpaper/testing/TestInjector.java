@@ -30,6 +30,8 @@ import com.android.wallpaper.module.AlarmManagerWrapper;
 import com.android.wallpaper.module.BitmapCropper;
 import com.android.wallpaper.module.CurrentWallpaperInfoFactory;
 import com.android.wallpaper.module.CustomizationSections;
+import com.android.wallpaper.module.DecodeScheduler;
+import com.android.wallpaper.module.DefaultDecodeScheduler;
 import com.android.wallpaper.module.DefaultLiveWallpaperInfoFactory;
 import com.android.wallpaper.module.DrawableLayerResolver;
 import com.android.wallpaper.module.ExploreIntentChecker;
@@ -41,6 +43,7 @@ import com.android.wallpaper.module.PackageStatusNotifier;
 import com.android.wallpaper.module.PartnerProvider;
 import com.android.wallpaper.module.SystemFeatureChecker;
 import com.android.wallpaper.module.UserEventLogger;
+import com.android.wallpaper.module.WallpaperColorExtractor;
 import com.android.wallpaper.module.WallpaperPersister;
 import com.android.wallpaper.module.WallpaperPreferences;
 import com.android.wallpaper.module.WallpaperRefresher;
@@ -58,12 +61,14 @@ import com.android.wallpaper.util.DisplayUtils;
 public class TestInjector implements Injector {
 
     private BitmapCropper mBitmapCropper;
+    private DecodeScheduler mDecodeScheduler;
     private CategoryProvider mCategoryProvider;
     private PartnerProvider mPartnerProvider;
     private WallpaperPreferences mPrefs;
     private WallpaperPersister mWallpaperPersister;
     private WallpaperRefresher mWallpaperRefresher;
     private Requester mRequester;
+    private WallpaperColorExtractor mWallpaperColorExtractor;
     private WallpaperManagerCompat mWallpaperManagerCompat;
     private CurrentWallpaperInfoFactory mCurrentWallpaperInfoFactory;
     private NetworkStatusNotifier mNetworkStatusNotifier;
@@ -83,6 +88,14 @@ public class TestInjector implements Injector {
         return mBitmapCropper;
     }
 
+    @Override
+    public DecodeScheduler getDecodeScheduler() {
+        if (mDecodeScheduler == null) {
+            mDecodeScheduler = new DefaultDecodeScheduler();
+        }
+        return mDecodeScheduler;
+    }
+
     @Override
     public CategoryProvider getCategoryProvider(Context context) {
         if (mCategoryProvider == null) {
@@ -128,6 +141,14 @@ public class TestInjector implements Injector {
         return null;
     }
 
+    @Override
+    public WallpaperColorExtractor getWallpaperColorExtractor(Context context) {
+        if (mWallpaperColorExtractor == null) {
+            mWallpaperColorExtractor = new TestWallpaperColorExtractor();
+        }
+        return mWallpaperColorExtractor;
+    }
+
     @Override
     public WallpaperManagerCompat getWallpaperManagerCompat(Context context) {
         if (mWallpaperManagerCompat == null) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.testing;
+
+import com.android.wallpaper.model.WallpaperInfo;
+import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
+import com.android.wallpaper.module.WallpaperColorExtractor;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Test implementation of {@link WallpaperColorExtractor}, which completes every extraction right
+ * away with the same colors.
+ */
+public class TestWallpaperColorExtractor implements WallpaperColorExtractor {
+
+    private ColorInfo mColorInfo;
+
+    public TestWallpaperColorExtractor() {
+        mColorInfo = new ColorInfo();
+    }
+
+    @Override
+    public CompletableFuture<ColorInfo> extract(WallpaperInfo wallpaper, @Priority int priority) {
+        return CompletableFuture.completedFuture(mColorInfo);
+    }
+
+    public void setColorInfo(ColorInfo colorInfo) {
+        mColorInfo = colorInfo;
+    }
+}
@@ -49,6 +49,7 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
 
     private List<String> mHomeScreenAttributions;
     private long mHomeScreenBitmapHashCode;
+    private long mHomeScreenFingerprint;
     private int mHomeWallpaperManagerId;
     private String mHomeScreenPackageName;
     private String mHomeScreenServiceName;
@@ -59,6 +60,7 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
 
     private List<String> mLockScreenAttributions;
     private long mLockScreenBitmapHashCode;
+    private long mLockScreenFingerprint;
     private int mLockWallpaperManagerId;
     private String mLockActionUrl;
     private String mLockCollectionId;
@@ -189,6 +191,7 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
         mHomeScreenAttributions = null;
         mWallpaperPresentationMode = WallpaperPreferences.PRESENTATION_MODE_STATIC;
         mHomeScreenBitmapHashCode = 0;
+        mHomeScreenFingerprint = 0;
         mHomeScreenPackageName = null;
         mHomeWallpaperManagerId = 0;
     }
@@ -203,6 +206,17 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
         mHomeScreenBitmapHashCode = hashCode;
     }
 
+    @Override
+    public long getHomeWallpaperFingerprint() {
+        return mHomeScreenFingerprint;
+    }
+
+    @Override
+    public void setHomeWallpaperFingerprint(long fingerprint) {
+        mHomeScreenFingerprint = fingerprint;
+        mHomeScreenBitmapHashCode = 0;
+    }
+
     @Override
     public String getHomeWallpaperPackageName() {
         return mHomeScreenPackageName;
@@ -309,6 +323,7 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
     public void clearLockWallpaperMetadata() {
         mLockScreenAttributions = null;
         mLockScreenBitmapHashCode = 0;
+        mLockScreenFingerprint = 0;
         mLockWallpaperManagerId = 0;
     }
 
@@ -322,6 +337,17 @@ public class TestWallpaperPreferences implements WallpaperPreferences {
         mLockScreenBitmapHashCode = hashCode;
     }
 
+    @Override
+    public long getLockWallpaperFingerprint() {
+        return mLockScreenFingerprint;
+    }
+
+    @Override
+    public void setLockWallpaperFingerprint(long fingerprint) {
+        mLockScreenFingerprint = fingerprint;
+        mLockScreenBitmapHashCode = 0;
+    }
+
     @Override
     public int getLockWallpaperId() {
         return mLockWallpaperManagerId;